@@ -32,11 +32,20 @@ import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.Toast;
 
+import com.kaopiz.kprogresshud.HudBitmapCache;
 import com.kaopiz.kprogresshud.KProgressHUD;
 import com.kaopiz.progresshud.R;
 
 public class MainActivity extends AppCompatActivity implements View.OnClickListener {
 
+    private static final int[] SPIN_FRAMES = {
+            R.drawable.frame_001, R.drawable.frame_002, R.drawable.frame_003, R.drawable.frame_004,
+            R.drawable.frame_005, R.drawable.frame_006, R.drawable.frame_007, R.drawable.frame_008,
+            R.drawable.frame_009, R.drawable.frame_010, R.drawable.frame_011, R.drawable.frame_012,
+            R.drawable.frame_013, R.drawable.frame_014, R.drawable.frame_015, R.drawable.frame_016,
+            R.drawable.frame_017, R.drawable.frame_018, R.drawable.frame_019, R.drawable.frame_020
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -133,9 +142,12 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                 simulateProgressUpdate();
                 break;
             case R.id.custom_view:
+                // Frames come from the shared cache, they are not decoded again for every HUD
+                int size = Math.round(60 * getResources().getDisplayMetrics().density);
+                AnimationDrawable drawable = HudBitmapCache.getInstance(this)
+                        .getAnimation(this, SPIN_FRAMES, 50, size, size);
                 ImageView imageView = new ImageView(this);
-                imageView.setBackgroundResource(R.drawable.spin_animation);
-                AnimationDrawable drawable = (AnimationDrawable) imageView.getBackground();
+                imageView.setImageDrawable(drawable);
                 drawable.start();
                 hud = KProgressHUD.create(this)
                         .setCustomView(imageView)
@@ -18,47 +18,57 @@ package com.kaopiz.kprogresshud;
 
 import android.content.Context;
 import android.graphics.Canvas;
-import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.RectF;
 import android.util.AttributeSet;
 import android.view.View;
 
-class AnnularView extends View implements Determinate {
+class AnnularView extends View implements Determinate, LongDeterminate,
+        ProgressAnimator.Host, ProgressAnimator.Listener, HudTheme.Themed {
 
     private Paint mWhitePaint;
     private Paint mGreyPaint;
     private RectF mBound;
-    private int mMax = 100;
-    private int mProgress = 0;
+    private long mMax = 100;
+    private ProgressAnimator mAnimator;
+    // Last sweep angle that was invalidated, and the area to redraw for a new one
+    private float mDrawnAngle;
+    private RectF mDirtyBound;
 
     public AnnularView(Context context) {
+        this(context, HudTheme.getDefault(context));
+    }
+
+    public AnnularView(Context context, HudTheme theme) {
         super(context);
-        init(context);
+        init(theme);
     }
 
     public AnnularView(Context context, AttributeSet attrs) {
         super(context, attrs);
-        init(context);
+        init(HudTheme.getDefault(context));
     }
 
     public AnnularView(Context context, AttributeSet attrs, int defStyleAttr) {
         super(context, attrs, defStyleAttr);
-        init(context);
+        init(HudTheme.getDefault(context));
     }
 
-    private void init(Context context){
-        mWhitePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        mWhitePaint.setStyle(Paint.Style.STROKE);
-        mWhitePaint.setStrokeWidth(Helper.dpToPixel(3, getContext()));
-        mWhitePaint.setColor(Color.WHITE);
-
-        mGreyPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        mGreyPaint.setStyle(Paint.Style.STROKE);
-        mGreyPaint.setStrokeWidth(Helper.dpToPixel(3, getContext()));
-        mGreyPaint.setColor(context.getResources().getColor(R.color.kprogresshud_grey_color));
+    private void init(HudTheme theme) {
+        setTheme(theme);
 
         mBound = new RectF();
+        mDirtyBound = new RectF();
+        mAnimator = new ProgressAnimator(this);
+    }
+
+    @Override
+    public void setTheme(HudTheme theme) {
+        // Shared with every other view of the theme
+        HudTheme.Paints paints = theme.getPaints(getContext());
+        mWhitePaint = paints.annularProgress;
+        mGreyPaint = paints.annularTrack;
+        invalidate();
     }
 
     @Override
@@ -71,7 +81,7 @@ class AnnularView extends View implements Determinate {
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
-        float mAngle = mProgress * 360f / mMax;
+        float mAngle = mAnimator.getValue() * 360f / mMax;
         canvas.drawArc(mBound, 270, mAngle, false, mWhitePaint);
         canvas.drawArc(mBound, 270 + mAngle, 360 - mAngle, false, mGreyPaint);
     }
@@ -85,12 +95,47 @@ class AnnularView extends View implements Determinate {
 
     @Override
     public void setMax(int max) {
+        setMax((long) max);
+    }
+
+    @Override
+    public void setMax(long max) {
+        if (max == mMax) {
+            return;
+        }
         this.mMax = max;
+        mAnimator.setMax(max);
+        // The angle changes with the ratio, redraw it all
+        mDrawnAngle = mAnimator.getValue() * 360f / max;
+        invalidate();
     }
 
     @Override
     public void setProgress(int progress) {
-        mProgress = progress;
-        invalidate();
+        setProgress((long) progress);
+    }
+
+    @Override
+    public void setProgress(long progress) {
+        mAnimator.setTarget(progress);
+    }
+
+    @Override
+    public void onAnimatedProgress(float progress) {
+        float angle = progress * 360f / mMax;
+        // Skip updates that would not move the end of the arc by a pixel
+        float radius = mBound.width() / 2;
+        if (Math.round(Math.toRadians(angle) * radius)
+                == Math.round(Math.toRadians(mDrawnAngle) * radius)) {
+            return;
+        }
+        Helper.getArcBounds(mBound, 270 + mDrawnAngle, angle - mDrawnAngle, false, mDirtyBound);
+        mDrawnAngle = angle;
+        Helper.invalidate(this, mDirtyBound, mWhitePaint.getStrokeWidth() / 2 + 1);
+    }
+
+    @Override
+    public ProgressAnimator getProgressAnimator() {
+        return mAnimator;
     }
 }
@@ -18,7 +18,7 @@ package com.kaopiz.kprogresshud;
 
 import android.annotation.TargetApi;
 import android.content.Context;
-import android.graphics.drawable.GradientDrawable;
+import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.util.AttributeSet;
 import android.widget.LinearLayout;
@@ -44,17 +44,14 @@ class BackgroundLayout extends LinearLayout {
         init();
     }
 
-    @SuppressWarnings("deprecation")
     private void init() {
-        int color = getContext().getResources().getColor(R.color.kprogresshud_default_color);
-        initBackground(color, mCornerRadius);
+        HudTheme theme = HudTheme.getDefault(getContext());
+        mBackgroundColor = theme.getBackgroundColor();
+        mCornerRadius = Helper.dpToPixel(theme.getCornerRadius(), getContext());
+        setBackgroundCompat(theme.newBackground(getContext()));
     }
 
-    private void initBackground(int color, float cornerRadius) {
-        GradientDrawable drawable = new GradientDrawable();
-        drawable.setShape(GradientDrawable.RECTANGLE);
-        drawable.setColor(color);
-        drawable.setCornerRadius(cornerRadius);
+    private void setBackgroundCompat(Drawable drawable) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
             setBackground(drawable);
         } else {
@@ -63,13 +60,22 @@ class BackgroundLayout extends LinearLayout {
         }
     }
 
-    public void setCornerRadius(float radius) {
-        mCornerRadius = Helper.dpToPixel(radius, getContext());
-        initBackground(mBackgroundColor, mCornerRadius);
-    }
-
-    public void setBaseColor(int color) {
+    /**
+     * Update the background, only if color or radius changed. When both match the theme,
+     * the drawable shares the theme's state instead of building a new one.
+     * @param radius Corner radius in dp
+     */
+    public void setBackgroundStyle(int color, float radius, HudTheme theme) {
+        float cornerRadius = Helper.dpToPixel(radius, getContext());
+        if (color == mBackgroundColor && cornerRadius == mCornerRadius) {
+            return;
+        }
         mBackgroundColor = color;
-        initBackground(mBackgroundColor, mCornerRadius);
+        mCornerRadius = cornerRadius;
+        if (color == theme.getBackgroundColor() && radius == theme.getCornerRadius()) {
+            setBackgroundCompat(theme.newBackground(getContext()));
+        } else {
+            setBackgroundCompat(HudTheme.createBackground(color, cornerRadius));
+        }
     }
 }
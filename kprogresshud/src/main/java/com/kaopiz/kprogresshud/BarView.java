@@ -18,52 +18,60 @@ package com.kaopiz.kprogresshud;
 
 import android.content.Context;
 import android.graphics.Canvas;
-import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.RectF;
 import android.util.AttributeSet;
 import android.view.View;
 
-class BarView extends View implements Determinate {
+class BarView extends View implements Determinate, LongDeterminate,
+        ProgressAnimator.Host, ProgressAnimator.Listener, HudTheme.Themed {
 
     private Paint mOuterPaint;
     private Paint mInnerPaint;
     private RectF mBound;
     private RectF mInBound;
-    private int mMax = 100;
-    private int mProgress = 0;
+    private long mMax = 100;
+    private ProgressAnimator mAnimator;
+    private RectF mDirtyBound;
     private float mBoundGap;
 
     public BarView(Context context) {
+        this(context, HudTheme.getDefault(context));
+    }
+
+    public BarView(Context context, HudTheme theme) {
         super(context);
-        init();
+        init(theme);
     }
 
     public BarView(Context context, AttributeSet attrs) {
         super(context, attrs);
-        init();
+        init(HudTheme.getDefault(context));
     }
 
     public BarView(Context context, AttributeSet attrs, int defStyleAttr) {
         super(context, attrs, defStyleAttr);
-        init();
+        init(HudTheme.getDefault(context));
     }
 
-    private void init() {
-        mOuterPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        mOuterPaint.setStyle(Paint.Style.STROKE);
-        mOuterPaint.setStrokeWidth(Helper.dpToPixel(2, getContext()));
-        mOuterPaint.setColor(Color.WHITE);
-
-        mInnerPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        mInnerPaint.setStyle(Paint.Style.FILL);
-        mInnerPaint.setColor(Color.WHITE);
+    private void init(HudTheme theme) {
+        setTheme(theme);
 
         mBoundGap = Helper.dpToPixel(5, getContext());
-        mInBound = new RectF(mBoundGap, mBoundGap,
-                (getWidth() - mBoundGap) * mProgress / mMax, getHeight() - mBoundGap);
+        mInBound = new RectF();
 
         mBound = new RectF();
+        mDirtyBound = new RectF();
+        mAnimator = new ProgressAnimator(this);
+    }
+
+    @Override
+    public void setTheme(HudTheme theme) {
+        // Shared with every other view of the theme
+        HudTheme.Paints paints = theme.getPaints(getContext());
+        mOuterPaint = paints.barOutline;
+        mInnerPaint = paints.barFill;
+        invalidate();
     }
 
     @Override
@@ -71,6 +79,12 @@ class BarView extends View implements Determinate {
         super.onSizeChanged(w, h, oldw, oldh);
         int padding = Helper.dpToPixel(2, getContext());
         mBound.set(padding, padding, w - padding, h - padding);
+        updateInBound(mAnimator.getValue());
+    }
+
+    private void updateInBound(float progress) {
+        mInBound.set(mBoundGap, mBoundGap,
+                (getWidth() - mBoundGap) * progress / mMax, getHeight() - mBoundGap);
     }
 
     @Override
@@ -90,14 +104,48 @@ class BarView extends View implements Determinate {
 
     @Override
     public void setMax(int max) {
+        setMax((long) max);
+    }
+
+    @Override
+    public void setMax(long max) {
+        if (max == mMax) {
+            return;
+        }
         this.mMax = max;
+        mAnimator.setMax(max);
+        // The bar end moves with the ratio, redraw it all
+        updateInBound(mAnimator.getValue());
+        invalidate();
     }
 
     @Override
     public void setProgress(int progress) {
-        this.mProgress = progress;
-        mInBound.set(mBoundGap, mBoundGap,
-                (getWidth() - mBoundGap) * mProgress / mMax, getHeight() - mBoundGap);
-        invalidate();
+        setProgress((long) progress);
+    }
+
+    @Override
+    public void setProgress(long progress) {
+        mAnimator.setTarget(progress);
+    }
+
+    @Override
+    public void onAnimatedProgress(float progress) {
+        float oldRight = mInBound.right;
+        updateInBound(progress);
+        float newRight = mInBound.right;
+        // Skip updates that would not move the end of the bar by a pixel
+        if (Math.round(oldRight) == Math.round(newRight)) {
+            return;
+        }
+        // Only the part between both ends changes, plus the rounded cap
+        mDirtyBound.set(Math.min(oldRight, newRight) - mInBound.height(), mInBound.top,
+                Math.max(oldRight, newRight), mInBound.bottom);
+        Helper.invalidate(this, mDirtyBound, 1);
+    }
+
+    @Override
+    public ProgressAnimator getProgressAnimator() {
+        return mAnimator;
     }
 }
@@ -0,0 +1,354 @@
+/*
+ *    Copyright 2015 Kaopiz Software Co., Ltd.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.kaopiz.kprogresshud;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.util.TypedValue;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+/**
+ * Single view replacement for the kprogresshud_hud layout. Draws the rounded background and
+ * both labels itself, from cached StaticLayouts, and only hosts the indicator view as a child.
+ * A label change that keeps the text size only invalidates, it never requests a layout.
+ */
+class FlatHudLayout extends ViewGroup {
+
+    private final Paint mBackgroundPaint;
+    private final RectF mBackgroundBound;
+    private float mCornerRadius;
+
+    private final TextPaint mLabelPaint;
+    private final TextPaint mDetailsPaint;
+    // Copies of the label text, so callers may pass a buffer they keep changing
+    private final TextBuffer mLabel = new TextBuffer();
+    private final TextBuffer mDetailsLabel = new TextBuffer();
+    private boolean mHasLabel;
+    private boolean mHasDetailsLabel;
+    // Text laid out ahead of time, drawn as is while it fits
+    private HudText mPrecomputedLabel;
+    private HudText mPrecomputedDetailsLabel;
+    private StaticLayout mLabelLayout;
+    private StaticLayout mDetailsLayout;
+    private int mLabelLeft, mLabelTop;
+    private int mDetailsLeft, mDetailsTop;
+    // Width available to the labels, known after the first measure
+    private int mMaxTextWidth = Integer.MAX_VALUE;
+    // Widest text widths seen so far, reserved in fixed width mode
+    private boolean mFixedTextWidth;
+    private int mLabelWidth;
+    private int mDetailsWidth;
+
+    private View mIndicator;
+
+    // Same metrics as kprogresshud_hud.xml
+    private final int mPadding;
+    private final int mLabelMarginTop;
+    private final int mLabelMarginBottom;
+
+    public FlatHudLayout(Context context) {
+        super(context);
+        setWillNotDraw(false);
+        int wrapParam = LayoutParams.WRAP_CONTENT;
+        setLayoutParams(new FrameLayout.LayoutParams(wrapParam, wrapParam));
+
+        mBackgroundPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mBackgroundPaint.setStyle(Paint.Style.FILL);
+        //noinspection deprecation
+        mBackgroundPaint.setColor(context.getResources().getColor(R.color.kprogresshud_default_color));
+        mBackgroundBound = new RectF();
+
+        mLabelPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        mLabelPaint.setColor(Color.WHITE);
+        mLabelPaint.setTextSize(spToPixel(HudText.LABEL_TEXT_SIZE_SP));
+        mDetailsPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        mDetailsPaint.setColor(Color.WHITE);
+        mDetailsPaint.setTextSize(spToPixel(HudText.DETAILS_TEXT_SIZE_SP));
+
+        mPadding = Helper.dpToPixel(16, context);
+        mLabelMarginTop = Helper.dpToPixel(8, context);
+        mLabelMarginBottom = Helper.dpToPixel(4, context);
+    }
+
+    private float spToPixel(float sp) {
+        return TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, sp,
+                getResources().getDisplayMetrics());
+    }
+
+    public void setCornerRadius(float radius) {
+        mCornerRadius = Helper.dpToPixel(radius, getContext());
+        invalidate();
+    }
+
+    public void setBaseColor(int color) {
+        mBackgroundPaint.setColor(color);
+        invalidate();
+    }
+
+    public void setIndicator(View view) {
+        if (mIndicator == view) {
+            return;
+        }
+        if (mIndicator != null) {
+            removeView(mIndicator);
+        }
+        mIndicator = view;
+        if (view != null) {
+            if (view.getParent() != null) {
+                ((ViewGroup) view.getParent()).removeView(view);
+            }
+            LayoutParams params = view.getLayoutParams();
+            if (params == null) {
+                int wrapParam = LayoutParams.WRAP_CONTENT;
+                params = new LayoutParams(wrapParam, wrapParam);
+            }
+            addView(view, params);
+        }
+    }
+
+    /**
+     * Keep the label widths from shrinking, so that new text that fits only invalidates.
+     */
+    public void setFixedTextWidth(boolean fixedTextWidth) {
+        if (mFixedTextWidth != fixedTextWidth) {
+            mFixedTextWidth = fixedTextWidth;
+            mLabelWidth = 0;
+            mDetailsWidth = 0;
+            rebuildLayouts();
+            requestLayout();
+            invalidate();
+        }
+    }
+
+    private void rebuildLayouts() {
+        mLabelLayout = makeLabelLayout();
+        mDetailsLayout = makeDetailsLayout();
+    }
+
+    public void setLabel(CharSequence label, int color) {
+        if (mLabelPaint.getColor() != color) {
+            setTextColor(mLabelPaint, color);
+        }
+        if (label == null ? !mHasLabel : mHasLabel && mLabel.contentEquals(label)) {
+            return;
+        }
+        mPrecomputedLabel = null;
+        mHasLabel = label != null;
+        if (label != null) {
+            mLabel.set(label);
+        }
+        StaticLayout oldLayout = mLabelLayout;
+        mLabelLayout = makeLabelLayout();
+        onTextLayoutChanged(oldLayout, mLabelLayout);
+    }
+
+    public void setDetailsLabel(CharSequence detailsLabel, int color) {
+        if (mDetailsPaint.getColor() != color) {
+            setTextColor(mDetailsPaint, color);
+        }
+        if (detailsLabel == null ? !mHasDetailsLabel
+                : mHasDetailsLabel && mDetailsLabel.contentEquals(detailsLabel)) {
+            return;
+        }
+        mPrecomputedDetailsLabel = null;
+        mHasDetailsLabel = detailsLabel != null;
+        if (detailsLabel != null) {
+            mDetailsLabel.set(detailsLabel);
+        }
+        StaticLayout oldLayout = mDetailsLayout;
+        mDetailsLayout = makeDetailsLayout();
+        onTextLayoutChanged(oldLayout, mDetailsLayout);
+    }
+
+    /**
+     * Show text laid out ahead of time. It is only laid out again if it does not fit.
+     */
+    public void setLabel(HudText label, int color) {
+        mLabelPaint.setColor(color);
+        mPrecomputedLabel = label;
+        mHasLabel = true;
+        mLabel.set(label.getText());
+        StaticLayout oldLayout = mLabelLayout;
+        mLabelLayout = makeLabelLayout();
+        onTextLayoutChanged(oldLayout, mLabelLayout);
+    }
+
+    public void setDetailsLabel(HudText detailsLabel, int color) {
+        mDetailsPaint.setColor(color);
+        mPrecomputedDetailsLabel = detailsLabel;
+        mHasDetailsLabel = true;
+        mDetailsLabel.set(detailsLabel.getText());
+        StaticLayout oldLayout = mDetailsLayout;
+        mDetailsLayout = makeDetailsLayout();
+        onTextLayoutChanged(oldLayout, mDetailsLayout);
+    }
+
+    private void setTextColor(TextPaint paint, int color) {
+        paint.setColor(color);
+        invalidate();
+    }
+
+    private StaticLayout makeLabelLayout() {
+        if (!mHasLabel) {
+            return null;
+        }
+        if (mPrecomputedLabel != null && !mFixedTextWidth
+                && mPrecomputedLabel.fits(mLabelPaint, mMaxTextWidth)) {
+            return mPrecomputedLabel.getLayout();
+        }
+        int width = (int) Math.ceil(Layout.getDesiredWidth(mLabel, mLabelPaint));
+        if (mFixedTextWidth) {
+            mLabelWidth = Math.max(mLabelWidth, width);
+            width = mLabelWidth;
+        }
+        return makeLayout(mLabel, mLabelPaint, width);
+    }
+
+    private StaticLayout makeDetailsLayout() {
+        if (!mHasDetailsLabel) {
+            return null;
+        }
+        if (mPrecomputedDetailsLabel != null && !mFixedTextWidth
+                && mPrecomputedDetailsLabel.fits(mDetailsPaint, mMaxTextWidth)) {
+            return mPrecomputedDetailsLabel.getLayout();
+        }
+        int width = (int) Math.ceil(Layout.getDesiredWidth(mDetailsLabel, mDetailsPaint));
+        if (mFixedTextWidth) {
+            mDetailsWidth = Math.max(mDetailsWidth, width);
+            width = mDetailsWidth;
+        }
+        return makeLayout(mDetailsLabel, mDetailsPaint, width);
+    }
+
+    private StaticLayout makeLayout(CharSequence text, TextPaint paint, int width) {
+        width = Math.max(0, Math.min(width, mMaxTextWidth));
+        Layout.Alignment alignment = mFixedTextWidth
+                ? Layout.Alignment.ALIGN_CENTER : Layout.Alignment.ALIGN_NORMAL;
+        //noinspection deprecation
+        return new StaticLayout(text, paint, width, alignment, 1, 0, false);
+    }
+
+    private void onTextLayoutChanged(StaticLayout oldLayout, StaticLayout newLayout) {
+        if (oldLayout != null && newLayout != null
+                && oldLayout.getWidth() == newLayout.getWidth()
+                && oldLayout.getHeight() == newLayout.getHeight()) {
+            invalidate();
+        } else {
+            requestLayout();
+            invalidate();
+        }
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int maxTextWidth = Integer.MAX_VALUE;
+        if (MeasureSpec.getMode(widthMeasureSpec) != MeasureSpec.UNSPECIFIED) {
+            maxTextWidth = MeasureSpec.getSize(widthMeasureSpec) - 2 * mPadding;
+        }
+        if (maxTextWidth != mMaxTextWidth) {
+            mMaxTextWidth = maxTextWidth;
+            rebuildLayouts();
+        }
+
+        int contentWidth = 0;
+        int contentHeight = 0;
+        if (mIndicator != null && mIndicator.getVisibility() != GONE) {
+            measureChild(mIndicator, widthMeasureSpec, heightMeasureSpec);
+            contentWidth = mIndicator.getMeasuredWidth();
+            contentHeight = mIndicator.getMeasuredHeight();
+        }
+        if (mLabelLayout != null) {
+            contentWidth = Math.max(contentWidth, mLabelLayout.getWidth());
+            contentHeight += mLabelMarginTop + mLabelLayout.getHeight() + mLabelMarginBottom;
+        }
+        if (mDetailsLayout != null) {
+            contentWidth = Math.max(contentWidth, mDetailsLayout.getWidth());
+            contentHeight += mDetailsLayout.getHeight();
+        }
+
+        setMeasuredDimension(resolveSize(contentWidth + 2 * mPadding, widthMeasureSpec),
+                resolveSize(contentHeight + 2 * mPadding, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        int width = r - l;
+        int height = b - t;
+        int contentHeight = 0;
+        boolean hasIndicator = mIndicator != null && mIndicator.getVisibility() != GONE;
+        if (hasIndicator) {
+            contentHeight += mIndicator.getMeasuredHeight();
+        }
+        if (mLabelLayout != null) {
+            contentHeight += mLabelMarginTop + mLabelLayout.getHeight() + mLabelMarginBottom;
+        }
+        if (mDetailsLayout != null) {
+            contentHeight += mDetailsLayout.getHeight();
+        }
+
+        // Stack everything vertically, centered, like the gravity="center" LinearLayout did
+        int top = (height - contentHeight) / 2;
+        if (hasIndicator) {
+            int left = (width - mIndicator.getMeasuredWidth()) / 2;
+            mIndicator.layout(left, top, left + mIndicator.getMeasuredWidth(),
+                    top + mIndicator.getMeasuredHeight());
+            top += mIndicator.getMeasuredHeight();
+        }
+        if (mLabelLayout != null) {
+            top += mLabelMarginTop;
+            mLabelLeft = (width - mLabelLayout.getWidth()) / 2;
+            mLabelTop = top;
+            top += mLabelLayout.getHeight() + mLabelMarginBottom;
+        }
+        if (mDetailsLayout != null) {
+            mDetailsLeft = (width - mDetailsLayout.getWidth()) / 2;
+            mDetailsTop = top;
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        mBackgroundBound.set(0, 0, getWidth(), getHeight());
+        canvas.drawRoundRect(mBackgroundBound, mCornerRadius, mCornerRadius, mBackgroundPaint);
+        drawText(canvas, mLabelLayout, mLabelPaint.getColor(), mLabelLeft, mLabelTop);
+        drawText(canvas, mDetailsLayout, mDetailsPaint.getColor(), mDetailsLeft, mDetailsTop);
+    }
+
+    private static void drawText(Canvas canvas, StaticLayout layout, int color, int left, int top) {
+        if (layout == null) {
+            return;
+        }
+        // A precomputed layout draws with the paint of its HudText, which may be shared by
+        // other HUDs, so its color is only set for this draw
+        TextPaint paint = layout.getPaint();
+        int oldColor = paint.getColor();
+        paint.setColor(color);
+        canvas.save();
+        canvas.translate(left, top);
+        layout.draw(canvas);
+        canvas.restore();
+        paint.setColor(oldColor);
+    }
+}
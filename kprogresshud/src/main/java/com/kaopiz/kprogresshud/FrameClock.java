@@ -0,0 +1,199 @@
+/*
+ *    Copyright 2015 Kaopiz Software Co., Ltd.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.kaopiz.kprogresshud;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+
+/**
+ * Process-wide animation clock driven by the display vsync (Choreographer on API 16 and later).
+ * Every registered {@link Callback} is called once per frame from a single frame callback, so
+ * any number of animating views cost one callback per frame instead of one message loop each.
+ * One-shot frame actions may also be posted from any thread; they run on the next frame,
+ * before the callbacks.
+ */
+public final class FrameClock {
+
+    /**
+     * Receives frame ticks on the main thread while registered.
+     */
+    public interface Callback {
+        /**
+         * @param frameTimeNanos Frame start time, in the {@link System#nanoTime()} time base.
+         *                       Animations should compute their state from it instead of
+         *                       counting frames.
+         */
+        void onFrame(long frameTimeNanos);
+    }
+
+    private static final long FALLBACK_FRAME_TIME_MS = 16;
+
+    private static FrameClock sInstance;
+
+    private final Handler mMainHandler;
+    private final Driver mDriver;
+    private final Object mLock = new Object();
+    private final ArrayList<Runnable> mPendingActions = new ArrayList<>();
+    private final ArrayList<Runnable> mRunningActions = new ArrayList<>();
+    private boolean mFrameRequested;
+
+    // Main thread only
+    private final ArrayList<Callback> mCallbacks = new ArrayList<>();
+    private final ArrayList<Callback> mDispatchingCallbacks = new ArrayList<>();
+
+    private FrameClock() {
+        mMainHandler = new Handler(Looper.getMainLooper());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            mDriver = new ChoreographerDriver();
+        } else {
+            mDriver = new HandlerDriver();
+        }
+    }
+
+    public static synchronized FrameClock getInstance() {
+        if (sInstance == null) {
+            sInstance = new FrameClock();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Run an action on the main thread at the next frame. Safe to call from any thread.
+     * Callers are expected to coalesce their own requests, so the same action is usually
+     * posted at most once per frame.
+     */
+    void postFrameAction(Runnable action) {
+        synchronized (mLock) {
+            mPendingActions.add(action);
+            requestFrameLocked();
+        }
+    }
+
+    /**
+     * Start receiving frame ticks. Must be called on the main thread.
+     * Adding a callback that is already registered has no effect.
+     */
+    public void addCallback(Callback callback) {
+        if (!mCallbacks.contains(callback)) {
+            mCallbacks.add(callback);
+            synchronized (mLock) {
+                requestFrameLocked();
+            }
+        }
+    }
+
+    /**
+     * Stop receiving frame ticks. Must be called on the main thread.
+     * The clock stops requesting frames once no callback is left.
+     */
+    public void removeCallback(Callback callback) {
+        mCallbacks.remove(callback);
+    }
+
+    private void requestFrameLocked() {
+        if (!mFrameRequested) {
+            mFrameRequested = true;
+            mDriver.requestFrame();
+        }
+    }
+
+    private void doFrame(long frameTimeNanos) {
+        synchronized (mLock) {
+            mFrameRequested = false;
+            mRunningActions.addAll(mPendingActions);
+            mPendingActions.clear();
+        }
+        for (int i = 0; i < mRunningActions.size(); i++) {
+            mRunningActions.get(i).run();
+        }
+        mRunningActions.clear();
+
+        if (mCallbacks.isEmpty()) {
+            return;
+        }
+        // Callbacks may add or remove themselves while being dispatched
+        mDispatchingCallbacks.addAll(mCallbacks);
+        for (int i = 0; i < mDispatchingCallbacks.size(); i++) {
+            Callback callback = mDispatchingCallbacks.get(i);
+            if (mCallbacks.contains(callback)) {
+                callback.onFrame(frameTimeNanos);
+            }
+        }
+        mDispatchingCallbacks.clear();
+        if (!mCallbacks.isEmpty()) {
+            synchronized (mLock) {
+                requestFrameLocked();
+            }
+        }
+    }
+
+    private interface Driver {
+        void requestFrame();
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private class ChoreographerDriver implements Driver, Choreographer.FrameCallback, Runnable {
+
+        // Choreographer is per-looper, so the main thread one can only be obtained there
+        private volatile Choreographer mChoreographer;
+
+        @Override
+        public void requestFrame() {
+            if (mChoreographer != null) {
+                mChoreographer.postFrameCallback(this);
+            } else if (Looper.myLooper() == Looper.getMainLooper()) {
+                mChoreographer = Choreographer.getInstance();
+                mChoreographer.postFrameCallback(this);
+            } else {
+                mMainHandler.post(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (mChoreographer == null) {
+                mChoreographer = Choreographer.getInstance();
+            }
+            mChoreographer.postFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            FrameClock.this.doFrame(frameTimeNanos);
+        }
+    }
+
+    private class HandlerDriver implements Driver, Runnable {
+
+        @Override
+        public void requestFrame() {
+            long now = SystemClock.uptimeMillis();
+            mMainHandler.postDelayed(this, FALLBACK_FRAME_TIME_MS - now % FALLBACK_FRAME_TIME_MS);
+        }
+
+        @Override
+        public void run() {
+            doFrame(System.nanoTime());
+        }
+    }
+}
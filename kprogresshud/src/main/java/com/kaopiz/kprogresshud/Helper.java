@@ -17,6 +17,8 @@
 package com.kaopiz.kprogresshud;
 
 import android.content.Context;
+import android.graphics.RectF;
+import android.view.View;
 
 class Helper {
 
@@ -28,4 +30,53 @@ class Helper {
         }
         return (int) (dp * scale);
     }
+
+    /**
+     * Compute the bounds of an arc of an oval, the same way Canvas.drawArc() takes its angles.
+     * @param useCenter Whether the bounds should also contain the center, for a pie slice
+     */
+    public static void getArcBounds(RectF oval, float startAngle, float sweepAngle,
+                                    boolean useCenter, RectF out) {
+        if (sweepAngle < 0) {
+            startAngle += sweepAngle;
+            sweepAngle = -sweepAngle;
+        }
+        if (sweepAngle >= 360) {
+            out.set(oval);
+            return;
+        }
+        float centerX = oval.centerX();
+        float centerY = oval.centerY();
+        float radiusX = oval.width() / 2;
+        float radiusY = oval.height() / 2;
+
+        double start = Math.toRadians(startAngle);
+        double end = Math.toRadians(startAngle + sweepAngle);
+        float startX = centerX + radiusX * (float) Math.cos(start);
+        float startY = centerY + radiusY * (float) Math.sin(start);
+        float endX = centerX + radiusX * (float) Math.cos(end);
+        float endY = centerY + radiusY * (float) Math.sin(end);
+        out.set(Math.min(startX, endX), Math.min(startY, endY),
+                Math.max(startX, endX), Math.max(startY, endY));
+        if (useCenter) {
+            out.union(centerX, centerY);
+        }
+        // The arc reaches the edge of the oval wherever it crosses an axis
+        for (int axis = 0; axis < 360; axis += 90) {
+            float offset = ((axis - startAngle) % 360 + 360) % 360;
+            if (offset <= sweepAngle) {
+                double angle = Math.toRadians(axis);
+                out.union(centerX + radiusX * (float) Math.cos(angle),
+                        centerY + radiusY * (float) Math.sin(angle));
+            }
+        }
+    }
+
+    /**
+     * Invalidate the pixels covered by a rect, grown by an outset for strokes and antialiasing.
+     */
+    public static void invalidate(View view, RectF dirty, float outset) {
+        view.invalidate((int) Math.floor(dirty.left - outset), (int) Math.floor(dirty.top - outset),
+                (int) Math.ceil(dirty.right + outset), (int) Math.ceil(dirty.bottom + outset));
+    }
 }
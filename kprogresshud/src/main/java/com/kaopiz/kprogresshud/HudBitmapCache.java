@@ -0,0 +1,245 @@
+/*
+ *    Copyright 2015 Kaopiz Software Co., Ltd.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.kaopiz.kprogresshud;
+
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.drawable.AnimationDrawable;
+import android.graphics.drawable.BitmapDrawable;
+import android.os.Build;
+import android.util.LruCache;
+
+/**
+ * Process-wide cache of decoded indicator images, e.g. the frames of a custom view animation.
+ * Images are decoded once per resource, density and size, already scaled to the size they
+ * are drawn at, and shared by every HUD. The cache is capped in bytes and trimmed when the
+ * system runs low on memory.
+ * Decoding goes through one reused buffer (inBitmap, API 19 and later), so a cache miss only
+ * allocates the final, exact size bitmap. The buffer counts against the byte cap, it is
+ * dropped when the cached images need the room.
+ * Cached bitmaps are shared, they must not be modified or recycled by callers.
+ */
+public final class HudBitmapCache {
+
+    private static HudBitmapCache sInstance;
+
+    private final LruCache<Key, Bitmap> mCache;
+    // Reused for lookups, guarded by this
+    private final Key mLookupKey = new Key();
+    // Full decode of the source image, reused between decodes, never handed out.
+    // Only kept while it fits in the byte cap along with the cached images.
+    private Bitmap mDecodeBuffer;
+    private final Paint mScalePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect mSourceRect = new Rect();
+    private final Rect mTargetRect = new Rect();
+
+    private HudBitmapCache(int maxBytes) {
+        mCache = new LruCache<Key, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(Key key, Bitmap bitmap) {
+                return bitmap.getRowBytes() * bitmap.getHeight();
+            }
+        };
+    }
+
+    public static synchronized HudBitmapCache getInstance(Context context) {
+        if (sInstance == null) {
+            // Indicator images are small, a 32th of the heap leaves plenty of room
+            int maxBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 32, Integer.MAX_VALUE);
+            sInstance = new HudBitmapCache(maxBytes);
+            context.getApplicationContext().registerComponentCallbacks(sInstance.mTrimCallbacks);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param resId Drawable resource of a bitmap image
+     * @param width Width to draw the image at, in pixels
+     * @param height Height to draw the image at, in pixels
+     * @return The shared image, scaled to the given size
+     */
+    public synchronized Bitmap getBitmap(Context context, int resId, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Image size must be positive!");
+        }
+        Resources resources = context.getResources();
+        int densityDpi = resources.getDisplayMetrics().densityDpi;
+        Bitmap bitmap = mCache.get(mLookupKey.set(resId, densityDpi, width, height));
+        if (bitmap == null) {
+            bitmap = decode(resources, resId, width, height);
+            mCache.put(new Key().set(resId, densityDpi, width, height), bitmap);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                trimDecodeBuffer();
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * @return A new drawable sharing the cached image
+     */
+    public BitmapDrawable getDrawable(Context context, int resId, int width, int height) {
+        return new BitmapDrawable(context.getResources(), getBitmap(context, resId, width, height));
+    }
+
+    /**
+     * Build a looping frame animation from cached images, in place of an animation-list
+     * drawable that decodes every frame again each time it is inflated.
+     * @param frameResIds Drawable resources of the frames, in order
+     * @param frameDurationMs Duration of each frame
+     * @param width Width to draw the frames at, in pixels
+     * @param height Height to draw the frames at, in pixels
+     * @return A new, stopped animation
+     */
+    public AnimationDrawable getAnimation(Context context, int[] frameResIds, int frameDurationMs,
+                                          int width, int height) {
+        AnimationDrawable animation = new AnimationDrawable();
+        for (int resId : frameResIds) {
+            animation.addFrame(getDrawable(context, resId, width, height), frameDurationMs);
+        }
+        animation.setOneShot(false);
+        return animation;
+    }
+
+    public synchronized void clear() {
+        mCache.evictAll();
+        mDecodeBuffer = null;
+    }
+
+    private Bitmap decode(Resources resources, int resId, int width, int height) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        // Scaled once below to the exact size, not by the decoder to the screen density
+        options.inScaled = false;
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(resources, resId, options);
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= width
+                && options.outHeight / (sampleSize * 2) >= height) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inMutable = true;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            setDecodeBuffer(options);
+        }
+        Bitmap source;
+        try {
+            source = BitmapFactory.decodeResource(resources, resId, options);
+        } catch (IllegalArgumentException e) {
+            // The buffer does not fit this image after all
+            options.inBitmap = null;
+            source = BitmapFactory.decodeResource(resources, resId, options);
+        }
+        if (source == null) {
+            throw new IllegalArgumentException("Resource is not a bitmap image: " + resId);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            mDecodeBuffer = source;
+        }
+
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        mSourceRect.set(0, 0, source.getWidth(), source.getHeight());
+        mTargetRect.set(0, 0, width, height);
+        new Canvas(bitmap).drawBitmap(source, mSourceRect, mTargetRect, mScalePaint);
+        return bitmap;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private void setDecodeBuffer(BitmapFactory.Options options) {
+        if (mDecodeBuffer == null) {
+            return;
+        }
+        long needed = (long) (options.outWidth / options.inSampleSize + 1)
+                * (options.outHeight / options.inSampleSize + 1) * 4;
+        if (needed <= mDecodeBuffer.getAllocationByteCount()) {
+            options.inBitmap = mDecodeBuffer;
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private void trimDecodeBuffer() {
+        if (mDecodeBuffer != null && (long) mCache.size()
+                + mDecodeBuffer.getAllocationByteCount() > mCache.maxSize()) {
+            mDecodeBuffer = null;
+        }
+    }
+
+    private final ComponentCallbacks2 mTrimCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            if (level >= TRIM_MEMORY_BACKGROUND) {
+                clear();
+            } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+                synchronized (HudBitmapCache.this) {
+                    mCache.trimToSize(mCache.maxSize() / 2);
+                    mDecodeBuffer = null;
+                }
+            }
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+            clear();
+        }
+    };
+
+    private static final class Key {
+        private int mResId;
+        private int mDensityDpi;
+        private int mWidth;
+        private int mHeight;
+
+        Key set(int resId, int densityDpi, int width, int height) {
+            mResId = resId;
+            mDensityDpi = densityDpi;
+            mWidth = width;
+            mHeight = height;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return mResId == key.mResId && mDensityDpi == key.mDensityDpi
+                    && mWidth == key.mWidth && mHeight == key.mHeight;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mResId;
+            result = 31 * result + mDensityDpi;
+            result = 31 * result + mWidth;
+            return 31 * result + mHeight;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ *    Copyright 2015 Kaopiz Software Co., Ltd.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.kaopiz.kprogresshud;
+
+import android.app.Activity;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide owner of one shared HUD for any number of concurrent tasks.
+ * Each task acquires the HUD and releases it when done: the HUD is shown on the first acquire,
+ * grace time included, and dismissed when the last task releases it. So concurrent tasks
+ * never stack dialogs or animate several spinners at once.
+ * Tasks report their own progress, which is combined by weight into a single progress update
+ * of the shared HUD per frame. A released task counts as complete until every task is done.
+ * Acquire and release must be called on the main thread, task progress from any thread.
+ */
+public final class HudCoordinator {
+
+    /**
+     * Sets up the shared HUD, e.g. its style and label, each time one is taken for a new
+     * round of tasks.
+     */
+    public interface Configurator {
+        void onConfigure(KProgressHUD hud);
+    }
+
+    // Max progress of the shared HUD, combined progress is a fraction of it
+    private static final int PROGRESS_SCALE = 10000;
+
+    private static HudCoordinator sInstance;
+
+    private Configurator mConfigurator;
+
+    // Main thread only
+    private final ArrayList<Task> mTasks = new ArrayList<>();
+    private float mCompletedWeight;
+    private Activity mActivity;
+    private KProgressHUD mHud;
+
+    // The HUD lets go of a destroyed Activity by itself, the coordinator forgets it and the
+    // tasks of that screen, so that the next acquire starts a new round
+    private final HudLifecycle.Observer mLifecycleObserver = new HudLifecycle.Observer() {
+        @Override
+        public void onHostDestroyed(Activity activity) {
+            if (activity == mActivity) {
+                for (int i = 0; i < mTasks.size(); i++) {
+                    mTasks.get(i).mOrphaned = true;
+                }
+                mTasks.clear();
+                mCompletedWeight = 0;
+                mHud = null;
+                mActivity = null;
+            }
+        }
+    };
+
+    private final AtomicBoolean mUpdateScheduled = new AtomicBoolean();
+    private final Runnable mUpdateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mUpdateScheduled.set(false);
+            applyProgress();
+        }
+    };
+
+    private HudCoordinator() {
+    }
+
+    public static synchronized HudCoordinator getInstance() {
+        if (sInstance == null) {
+            sInstance = new HudCoordinator();
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param configurator Called on the shared HUD before it is shown. By default the HUD
+     *                     keeps the defaults of {@link KProgressHUD#create(android.content.Context)}.
+     */
+    public void setConfigurator(Configurator configurator) {
+        mConfigurator = configurator;
+    }
+
+    /**
+     * @return The shared HUD while any task holds it, otherwise null
+     */
+    public KProgressHUD getHud() {
+        return mHud;
+    }
+
+    /**
+     * Same as {@link #acquire(Activity, float)} with a weight of 1.
+     */
+    public Task acquire(Activity activity) {
+        return acquire(activity, 1);
+    }
+
+    /**
+     * Take a reference on the shared HUD for a new task, showing the HUD if needed.
+     * The HUD is bound to the Activity of the first task. Later tasks share it as it is,
+     * unless that Activity has been destroyed meanwhile.
+     * @param activity Activity to show the HUD in, if it is not showing yet
+     * @param weight Share of this task in the combined progress
+     * @return The task handle, to report progress and release the HUD
+     */
+    public Task acquire(Activity activity, float weight) {
+        if (mHud == null) {
+            mActivity = activity;
+            mHud = HudPool.get(activity).acquire();
+            if (mConfigurator != null) {
+                mConfigurator.onConfigure(mHud);
+            }
+            mHud.setMaxProgress(PROGRESS_SCALE);
+            mHud.setLifecycleAware(true);
+            HudLifecycle.observe(activity, mLifecycleObserver);
+        }
+        Task task = new Task(this, Math.max(0, weight));
+        mTasks.add(task);
+        if (mHud != null && !mHud.isShowRequested()) {
+            // Either the first task, or the HUD was dismissed once all progress was complete
+            mHud.show();
+        }
+        scheduleUpdate();
+        return task;
+    }
+
+    private void release(Task task) {
+        if (!mTasks.remove(task)) {
+            return;
+        }
+        if (mTasks.isEmpty()) {
+            if (mHud != null) {
+                HudLifecycle.unobserve(mActivity, mLifecycleObserver);
+                // Dismissed like any other HUD, min show time included, pooled once it is gone
+                final KProgressHUD hud = mHud;
+                final Activity activity = mActivity;
+                hud.dismiss(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!HudLifecycle.isDestroyed(activity)) {
+                            HudPool.get(activity).release(hud);
+                        }
+                    }
+                });
+                mHud = null;
+                mActivity = null;
+            }
+            mCompletedWeight = 0;
+        } else {
+            mCompletedWeight += task.mWeight;
+            scheduleUpdate();
+        }
+    }
+
+    private void scheduleUpdate() {
+        if (mUpdateScheduled.compareAndSet(false, true)) {
+            FrameClock.getInstance().postFrameAction(mUpdateRunnable);
+        }
+    }
+
+    private void applyProgress() {
+        if (mHud == null) {
+            return;
+        }
+        float total = mCompletedWeight;
+        float done = mCompletedWeight;
+        for (int i = 0; i < mTasks.size(); i++) {
+            Task task = mTasks.get(i);
+            total += task.mWeight;
+            done += task.mWeight * task.getFraction();
+        }
+        if (total > 0) {
+            mHud.applyProgress(Math.round(done / total * PROGRESS_SCALE));
+        }
+    }
+
+    /**
+     * One task holding the shared HUD. Progress may be reported from any thread.
+     */
+    public static final class Task {
+
+        private final HudCoordinator mCoordinator;
+        private final float mWeight;
+        private final AtomicLong mProgress = new AtomicLong();
+        private volatile long mMaxProgress = 100;
+        // Set once the HUD went away with the Activity, the task no longer counts
+        private volatile boolean mOrphaned;
+
+        private Task(HudCoordinator coordinator, float weight) {
+            mCoordinator = coordinator;
+            mWeight = weight;
+        }
+
+        /**
+         * @param maxProgress Progress of this task when complete, default is 100
+         */
+        public Task setMaxProgress(long maxProgress) {
+            mMaxProgress = maxProgress;
+            if (!mOrphaned) {
+                mCoordinator.scheduleUpdate();
+            }
+            return this;
+        }
+
+        /**
+         * Has no effect once the Activity of the shared HUD has been destroyed.
+         */
+        public void setProgress(long progress) {
+            mProgress.set(progress);
+            if (!mOrphaned) {
+                mCoordinator.scheduleUpdate();
+            }
+        }
+
+        /**
+         * Give up this task's reference on the shared HUD. Must be called on the main thread.
+         * Has no effect if already released, or once the Activity of the shared HUD has been
+         * destroyed.
+         */
+        public void release() {
+            mCoordinator.release(this);
+        }
+
+        private float getFraction() {
+            long max = mMaxProgress;
+            if (max <= 0) {
+                return 0;
+            }
+            return Math.max(0, Math.min(1, (float) mProgress.get() / max));
+        }
+    }
+}
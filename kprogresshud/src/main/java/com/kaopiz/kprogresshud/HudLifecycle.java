@@ -0,0 +1,125 @@
+/*
+ *    Copyright 2015 Kaopiz Software Co., Ltd.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.kaopiz.kprogresshud;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Build;
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.WeakHashMap;
+
+/**
+ * Tells HUD components when their Activity is destroyed, through a single set of
+ * ActivityLifecycleCallbacks registered once per process.
+ * Main thread only.
+ */
+final class HudLifecycle {
+
+    interface Observer {
+        void onHostDestroyed(Activity activity);
+    }
+
+    private static final WeakHashMap<Activity, ArrayList<Observer>> sObservers =
+            new WeakHashMap<>();
+    private static boolean sRegistered;
+
+    private HudLifecycle() {
+    }
+
+    /**
+     * Call an observer once, when an Activity is destroyed. Observing an Activity that is
+     * already destroyed calls the observer right away.
+     */
+    static void observe(Activity activity, Observer observer) {
+        if (isDestroyed(activity)) {
+            observer.onHostDestroyed(activity);
+            return;
+        }
+        register(activity.getApplication());
+        ArrayList<Observer> observers = sObservers.get(activity);
+        if (observers == null) {
+            observers = new ArrayList<>(2);
+            sObservers.put(activity, observers);
+        }
+        if (!observers.contains(observer)) {
+            observers.add(observer);
+        }
+    }
+
+    static void unobserve(Activity activity, Observer observer) {
+        ArrayList<Observer> observers = sObservers.get(activity);
+        if (observers != null) {
+            observers.remove(observer);
+        }
+    }
+
+    /**
+     * @return Whether an Activity can no longer show windows
+     */
+    static boolean isGone(Activity activity) {
+        return activity.isFinishing() || isDestroyed(activity);
+    }
+
+    static boolean isDestroyed(Activity activity) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1
+                && activity.isDestroyed();
+    }
+
+    private static void register(Application application) {
+        if (sRegistered || application == null) {
+            return;
+        }
+        sRegistered = true;
+        application.registerActivityLifecycleCallbacks(new Application.ActivityLifecycleCallbacks() {
+            @Override
+            public void onActivityDestroyed(Activity activity) {
+                ArrayList<Observer> observers = sObservers.remove(activity);
+                if (observers != null) {
+                    for (int i = 0; i < observers.size(); i++) {
+                        observers.get(i).onHostDestroyed(activity);
+                    }
+                }
+            }
+
+            @Override
+            public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+            }
+
+            @Override
+            public void onActivityStarted(Activity activity) {
+            }
+
+            @Override
+            public void onActivityResumed(Activity activity) {
+            }
+
+            @Override
+            public void onActivityPaused(Activity activity) {
+            }
+
+            @Override
+            public void onActivityStopped(Activity activity) {
+            }
+
+            @Override
+            public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+            }
+        });
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ *    Copyright 2015 Kaopiz Software Co., Ltd.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.kaopiz.kprogresshud;
+
+/**
+ * Receives the lifecycle of a HUD, e.g. to measure the time from show to the first frame on
+ * screen, how long grace time held the HUD back or how long it stayed visible.
+ * Set for every HUD with {@link KProgressHUD#setDefaultMetricsListener(HudMetricsListener)}
+ * or for one with {@link KProgressHUD#setMetricsListener(HudMetricsListener)}.
+ * Reporting allocates nothing, so it can stay enabled in production. Keep the callbacks just
+ * as cheap, they run on the main thread in the middle of showing and dismissing the HUD.
+ */
+public interface HudMetricsListener {
+
+    enum Event {
+        /** show() was called on a HUD that was neither showing nor about to */
+        SHOW,
+        /** The grace time ran out and the HUD is put on screen */
+        GRACE_TIME_ELAPSED,
+        /** The HUD window, or overlay, was attached */
+        WINDOW_ATTACHED,
+        /**
+         * The first frame of the HUD is about to be drawn: it is laid out and its draw pass
+         * starts right after, the frame reaches the screen once that pass is done
+         */
+        FIRST_FRAME,
+        /**
+         * A HUD that is showing, or waiting for its grace time, starts to be dismissed, by the
+         * app or by the HUD itself. Reported once per show, the HUD may stay on screen a bit
+         * longer for its min show time or dismiss delay.
+         */
+        DISMISS,
+        /** The HUD window, or overlay, was removed */
+        WINDOW_REMOVED
+    }
+
+    /**
+     * @param timeNanos When the event happened, in the {@link System#nanoTime()} time base
+     */
+    void onEvent(KProgressHUD hud, Event event, long timeNanos);
+
+    /**
+     * Called when the HUD is removed, with the progress updates since the previous call.
+     * @param received Values passed to setProgress, from any thread
+     * @param applied Values applied to the views, at most one per frame
+     */
+    void onProgressUpdates(KProgressHUD hud, long received, long applied);
+}
@@ -0,0 +1,101 @@
+/*
+ *    Copyright 2015 Kaopiz Software Co., Ltd.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.kaopiz.kprogresshud;
+
+import android.app.Activity;
+
+import java.util.ArrayList;
+import java.util.WeakHashMap;
+
+/**
+ * Opt-in pool of HUDs bound to an Activity. A released HUD keeps its dialog, window and
+ * inflated views, and is handed out again reset to its defaults, so screens that show a HUD
+ * around every request do not rebuild it each time.
+ * The pool is dropped automatically when its Activity is destroyed.
+ * All methods must be called on the main thread.
+ */
+public final class HudPool {
+
+    private static final int MAX_POOL_SIZE = 4;
+
+    private static final WeakHashMap<Activity, HudPool> sPools = new WeakHashMap<>();
+    private static final HudLifecycle.Observer sLifecycleObserver = new HudLifecycle.Observer() {
+        @Override
+        public void onHostDestroyed(Activity activity) {
+            HudPool pool = sPools.remove(activity);
+            if (pool != null) {
+                pool.clear();
+            }
+        }
+    };
+
+    private final Activity mActivity;
+    private final ArrayList<KProgressHUD> mFreeHuds = new ArrayList<>(MAX_POOL_SIZE);
+
+    private HudPool(Activity activity) {
+        mActivity = activity;
+    }
+
+    /**
+     * Get the pool bound to an Activity, creating it on first use.
+     * @param activity Activity that the pooled HUDs are bound to
+     * @return The Activity's pool
+     */
+    public static HudPool get(Activity activity) {
+        HudPool pool = sPools.get(activity);
+        if (pool == null) {
+            pool = new HudPool(activity);
+            sPools.put(activity, pool);
+            HudLifecycle.observe(activity, sLifecycleObserver);
+        }
+        return pool;
+    }
+
+    /**
+     * Take a HUD from the pool, or create a new one if the pool is empty.
+     * @return A HUD with default settings, same as {@link KProgressHUD#create(android.content.Context)}
+     */
+    public KProgressHUD acquire() {
+        int size = mFreeHuds.size();
+        if (size > 0) {
+            return mFreeHuds.remove(size - 1);
+        }
+        return new KProgressHUD(mActivity);
+    }
+
+    /**
+     * Give a HUD back to the pool. It is dismissed if needed and reset to its defaults.
+     * The HUD must not be used by the caller after this call.
+     * @param hud A HUD obtained from {@link #acquire()}
+     */
+    public void release(KProgressHUD hud) {
+        if (hud == null || mFreeHuds.contains(hud)) {
+            return;
+        }
+        hud.reset();
+        if (mFreeHuds.size() < MAX_POOL_SIZE) {
+            mFreeHuds.add(hud);
+        }
+    }
+
+    private void clear() {
+        for (int i = 0; i < mFreeHuds.size(); i++) {
+            mFreeHuds.get(i).dismiss();
+        }
+        mFreeHuds.clear();
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ *    Copyright 2015 Kaopiz Software Co., Ltd.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.kaopiz.kprogresshud;
+
+/**
+ * Runs the HUD timers: grace time, min show time and delayed dismiss.
+ * Every HUD reuses the same Runnable for a given timer, so an implementation only has to
+ * support one pending run per Runnable. The default one posts to the main thread Handler.
+ * Tests may provide one with a virtual clock instead.
+ * All methods are called on the main thread, and actions must be run on it.
+ */
+public interface HudScheduler {
+
+    /**
+     * @return Current time in milliseconds, from a monotonic clock
+     */
+    long now();
+
+    /**
+     * Run an action once after a delay, replacing a pending run of the same action.
+     */
+    void schedule(Runnable action, long delayMs);
+
+    /**
+     * Cancel a pending run of an action, if any.
+     */
+    void cancel(Runnable action);
+}
@@ -0,0 +1,587 @@
+/*
+ *    Copyright 2015 Kaopiz Software Co., Ltd.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.kaopiz.kprogresshud;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.util.TypedValue;
+import android.view.SurfaceHolder;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Draws a whole HUD, dim, background, built-in style indicator and labels, into the surface of
+ * a SurfaceView from a render thread shared by every surface HUD of the process. The thread
+ * only runs while at least one of them has a surface. The surface is composited by the system,
+ * so once it is on screen, progress and label updates go from the thread that sets them
+ * straight to the render thread and show up while the main thread is blocked. Custom views can only be drawn on the main thread and are left out.
+ * Setters may be called from any thread, the SurfaceHolder callbacks come on the main thread.
+ */
+final class HudSurfaceRenderer implements SurfaceHolder.Callback {
+
+    // Same animation as SpinView, one spoke at a time
+    private static final int STEPS_PER_SECOND = 12;
+
+    // Started for the first surface and quit once no renderer has a surface left
+    private static HandlerThread sRenderThread;
+    private static int sSurfaceCount;
+
+    // On the render thread, set while the surface exists
+    private volatile Handler mHandler;
+    private final AtomicBoolean mRenderRequested = new AtomicBoolean();
+    private final Runnable mRenderRunnable = new Runnable() {
+        @Override
+        public void run() {
+            // Cleared before drawing so a change made meanwhile requests another frame
+            mRenderRequested.set(false);
+            render();
+        }
+    };
+    private final Runnable mTickRunnable = new Runnable() {
+        @Override
+        public void run() {
+            requestRender();
+        }
+    };
+
+    // The surface may only be drawn while held, so it is never destroyed in the middle of a frame
+    private final Object mSurfaceLock = new Object();
+    private SurfaceHolder mHolder;
+    private int mSurfaceWidth, mSurfaceHeight;
+    private boolean mFullRedraw;
+
+    // HUD state, written from any thread
+    private final Object mStateLock = new Object();
+    private final Context mContext;
+    private KProgressHUD.Style mStyle;
+    private volatile boolean mDeterminate;
+    private volatile long mProgress;
+    private long mMax = 100;
+    private int mBackgroundColor;
+    private float mCornerRadius;
+    private int mDimColor;
+    private float mSpeed = 1;
+    private int mWidth, mHeight;
+    private boolean mFixedTextWidth;
+    private HudTheme mTheme;
+    private boolean mThemeChanged;
+    private final TextBuffer mLabel = new TextBuffer();
+    private final TextBuffer mDetailsLabel = new TextBuffer();
+    private boolean mHasLabel;
+    private boolean mHasDetailsLabel;
+    private int mLabelColor = Color.WHITE;
+    private int mDetailsColor = Color.WHITE;
+    private boolean mTextChanged = true;
+
+    // Render thread only, own copies so nothing is shared with the main thread while drawing
+    private final Paint mBackgroundPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint[] mSpokePaints = new Paint[SpinView.SPOKE_COUNT];
+    private final Paint mPieFill = new Paint();
+    private final Paint mPieOutline = new Paint();
+    private final Paint mAnnularProgress = new Paint();
+    private final Paint mAnnularTrack = new Paint();
+    private final Paint mBarOutline = new Paint();
+    private final Paint mBarFill = new Paint();
+    private final TextPaint mLabelPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+    private final TextPaint mDetailsPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+    private final TextBuffer mDrawnLabel = new TextBuffer();
+    private final TextBuffer mDrawnDetailsLabel = new TextBuffer();
+    private boolean mDrawnFixedTextWidth;
+    private StaticLayout mLabelLayout;
+    private StaticLayout mDetailsLayout;
+    private int mLabelWidth, mDetailsWidth;
+    private int mMaxTextWidth = -1;
+    private float mLabelTop, mDetailsTop;
+    private final RectF mBox = new RectF();
+    private final RectF mIndicatorBound = new RectF();
+    private final RectF mShapeBound = new RectF();
+    private final Rect mDrawnBox = new Rect();
+    private final Rect mDirty = new Rect();
+    private long mStartTimeNanos = -1;
+
+    // Same metrics as kprogresshud_hud.xml and the style views
+    private final int mPadding;
+    private final int mLabelMarginTop;
+    private final int mLabelMarginBottom;
+    private final int mIndicatorSize;
+    private final int mBarWidth, mBarHeight;
+    private final int mPieInset, mBarInset, mBarGap;
+
+    HudSurfaceRenderer(Context context) {
+        mContext = context;
+        for (int i = 0; i < mSpokePaints.length; i++) {
+            mSpokePaints[i] = new Paint();
+        }
+        mLabelPaint.setTextSize(spToPixel(HudText.LABEL_TEXT_SIZE_SP));
+        mDetailsPaint.setTextSize(spToPixel(HudText.DETAILS_TEXT_SIZE_SP));
+
+        mPadding = Helper.dpToPixel(16, context);
+        mLabelMarginTop = Helper.dpToPixel(8, context);
+        mLabelMarginBottom = Helper.dpToPixel(4, context);
+        mIndicatorSize = Helper.dpToPixel(40, context);
+        mBarWidth = Helper.dpToPixel(100, context);
+        mBarHeight = Helper.dpToPixel(20, context);
+        mPieInset = Helper.dpToPixel(4, context);
+        mBarInset = Helper.dpToPixel(2, context);
+        mBarGap = Helper.dpToPixel(5, context);
+    }
+
+    private static synchronized Looper acquireRenderThread() {
+        if (sRenderThread == null) {
+            sRenderThread = new HandlerThread("KProgressHUD render",
+                    Process.THREAD_PRIORITY_DISPLAY);
+            sRenderThread.start();
+        }
+        sSurfaceCount++;
+        return sRenderThread.getLooper();
+    }
+
+    private static synchronized void releaseRenderThread() {
+        if (--sSurfaceCount == 0) {
+            // Nothing is left to draw, pending frames of destroyed surfaces can go
+            sRenderThread.quit();
+            sRenderThread = null;
+        }
+    }
+
+    private float spToPixel(float sp) {
+        return TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, sp,
+                mContext.getResources().getDisplayMetrics());
+    }
+
+    public void setStyle(KProgressHUD.Style style) {
+        synchronized (mStateLock) {
+            mStyle = style;
+            mDeterminate = style != null && style != KProgressHUD.Style.SPIN_INDETERMINATE;
+        }
+        requestRender();
+    }
+
+    public void setProgress(long progress) {
+        mProgress = progress;
+        if (mDeterminate) {
+            requestRender();
+        }
+    }
+
+    public void setMax(long max) {
+        synchronized (mStateLock) {
+            mMax = max;
+        }
+        requestRender();
+    }
+
+    /**
+     * @param cornerRadius Corner radius in dp
+     */
+    public void setBackground(int color, float cornerRadius) {
+        synchronized (mStateLock) {
+            mBackgroundColor = color;
+            mCornerRadius = Helper.dpToPixel(cornerRadius, mContext);
+        }
+        requestRender();
+    }
+
+    public void setDimAmount(float dimAmount) {
+        synchronized (mStateLock) {
+            mDimColor = Color.argb(Math.round(dimAmount * 255), 0, 0, 0);
+        }
+        requestRender();
+    }
+
+    public void setTheme(HudTheme theme) {
+        synchronized (mStateLock) {
+            mTheme = theme;
+            mThemeChanged = true;
+        }
+        requestRender();
+    }
+
+    public void setAnimationSpeed(float scale) {
+        synchronized (mStateLock) {
+            mSpeed = scale;
+        }
+    }
+
+    /**
+     * @param width Width in dp, 0 to fit the content
+     * @param height Height in dp, 0 to fit the content
+     */
+    public void setSize(int width, int height) {
+        synchronized (mStateLock) {
+            mWidth = Helper.dpToPixel(width, mContext);
+            mHeight = Helper.dpToPixel(height, mContext);
+        }
+        requestRender();
+    }
+
+    public void setFixedTextWidth(boolean fixedTextWidth) {
+        synchronized (mStateLock) {
+            if (mFixedTextWidth != fixedTextWidth) {
+                mFixedTextWidth = fixedTextWidth;
+                mTextChanged = true;
+            }
+        }
+        requestRender();
+    }
+
+    /**
+     * @param label Copied, null to hide the label
+     */
+    public void setLabel(CharSequence label, int color) {
+        synchronized (mStateLock) {
+            mHasLabel = label != null;
+            if (label != null) {
+                mLabel.set(label);
+            }
+            mLabelColor = color;
+            mTextChanged = true;
+        }
+        requestRender();
+    }
+
+    /**
+     * @param detailsLabel Copied, null to hide the label
+     */
+    public void setDetailsLabel(CharSequence detailsLabel, int color) {
+        synchronized (mStateLock) {
+            mHasDetailsLabel = detailsLabel != null;
+            if (detailsLabel != null) {
+                mDetailsLabel.set(detailsLabel);
+            }
+            mDetailsColor = color;
+            mTextChanged = true;
+        }
+        requestRender();
+    }
+
+    private void requestRender() {
+        // Without a surface there is nothing to draw, the next surface is drawn in full
+        Handler handler = mHandler;
+        if (handler != null && mRenderRequested.compareAndSet(false, true)) {
+            handler.post(mRenderRunnable);
+        }
+    }
+
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+        synchronized (mSurfaceLock) {
+            mHolder = holder;
+            mFullRedraw = true;
+        }
+        mRenderRequested.set(false);
+        mHandler = new Handler(acquireRenderThread());
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        synchronized (mSurfaceLock) {
+            mSurfaceWidth = width;
+            mSurfaceHeight = height;
+            mFullRedraw = true;
+        }
+        requestRender();
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+        synchronized (mSurfaceLock) {
+            mHolder = null;
+        }
+        Handler handler = mHandler;
+        if (handler != null) {
+            mHandler = null;
+            handler.removeCallbacks(mRenderRunnable);
+            handler.removeCallbacks(mTickRunnable);
+            releaseRenderThread();
+        }
+    }
+
+    private void render() {
+        long frameTimeNanos = System.nanoTime();
+        synchronized (mSurfaceLock) {
+            if (mHolder == null || mSurfaceWidth == 0) {
+                return;
+            }
+            KProgressHUD.Style style = prepareFrame(mSurfaceWidth, mSurfaceHeight);
+            // Only the HUD changes between frames, the dim around it stays as it is
+            if (mFullRedraw) {
+                mDirty.set(0, 0, mSurfaceWidth, mSurfaceHeight);
+            } else {
+                mDirty.set(mDrawnBox);
+                mDirty.union((int) Math.floor(mBox.left), (int) Math.floor(mBox.top),
+                        (int) Math.ceil(mBox.right), (int) Math.ceil(mBox.bottom));
+            }
+            Canvas canvas = mHolder.lockCanvas(mDirty);
+            if (canvas == null) {
+                return;
+            }
+            try {
+                draw(canvas, style, frameTimeNanos);
+            } finally {
+                mHolder.unlockCanvasAndPost(canvas);
+            }
+            mFullRedraw = false;
+            mBox.roundOut(mDrawnBox);
+            if (style == KProgressHUD.Style.SPIN_INDETERMINATE) {
+                scheduleNextStep(frameTimeNanos);
+            }
+        }
+    }
+
+    /**
+     * Take the latest state and lay out the HUD in the middle of the surface.
+     * @return The style to draw
+     */
+    private KProgressHUD.Style prepareFrame(int surfaceWidth, int surfaceHeight) {
+        KProgressHUD.Style style;
+        int width, height;
+        boolean textChanged;
+        boolean hasLabel, hasDetailsLabel;
+        synchronized (mStateLock) {
+            if (mThemeChanged) {
+                mThemeChanged = false;
+                copyPaints(mTheme.getPaints(mContext));
+            }
+            textChanged = mTextChanged;
+            if (textChanged) {
+                mTextChanged = false;
+                mDrawnLabel.set(mLabel);
+                mDrawnDetailsLabel.set(mDetailsLabel);
+                if (mDrawnFixedTextWidth != mFixedTextWidth) {
+                    mDrawnFixedTextWidth = mFixedTextWidth;
+                    mLabelWidth = 0;
+                    mDetailsWidth = 0;
+                }
+            }
+            hasLabel = mHasLabel;
+            hasDetailsLabel = mHasDetailsLabel;
+            mLabelPaint.setColor(mLabelColor);
+            mDetailsPaint.setColor(mDetailsColor);
+            mBackgroundPaint.setColor(mBackgroundColor);
+            style = mStyle;
+            width = mWidth;
+            height = mHeight;
+        }
+        int maxTextWidth = Math.max(0, surfaceWidth - 2 * mPadding);
+        if (textChanged || maxTextWidth != mMaxTextWidth) {
+            mMaxTextWidth = maxTextWidth;
+            // Built from the render thread's own copies, never from text being written
+            mLabelLayout = hasLabel ? makeLabelLayout() : null;
+            mDetailsLayout = hasDetailsLabel ? makeDetailsLayout() : null;
+        }
+
+        int indicatorWidth = getIndicatorWidth(style);
+        int indicatorHeight = getIndicatorHeight(style);
+        int contentWidth = indicatorWidth;
+        int contentHeight = indicatorHeight;
+        if (mLabelLayout != null) {
+            contentWidth = Math.max(contentWidth, mLabelLayout.getWidth());
+            contentHeight += mLabelMarginTop + mLabelLayout.getHeight() + mLabelMarginBottom;
+        }
+        if (mDetailsLayout != null) {
+            contentWidth = Math.max(contentWidth, mDetailsLayout.getWidth());
+            contentHeight += mDetailsLayout.getHeight();
+        }
+        int boxWidth = width > 0 ? width : contentWidth + 2 * mPadding;
+        int boxHeight = height > 0 ? height : contentHeight + 2 * mPadding;
+        int left = (surfaceWidth - boxWidth) / 2;
+        int top = (surfaceHeight - boxHeight) / 2;
+        mBox.set(left, top, left + boxWidth, top + boxHeight);
+
+        // Stack everything vertically, centered, like FlatHudLayout
+        top += (boxHeight - contentHeight) / 2;
+        left += (boxWidth - indicatorWidth) / 2;
+        mIndicatorBound.set(left, top, left + indicatorWidth, top + indicatorHeight);
+        top += indicatorHeight;
+        if (mLabelLayout != null) {
+            top += mLabelMarginTop;
+            mLabelTop = top;
+            top += mLabelLayout.getHeight() + mLabelMarginBottom;
+        }
+        mDetailsTop = top;
+        return style;
+    }
+
+    private StaticLayout makeLabelLayout() {
+        int width = (int) Math.ceil(Layout.getDesiredWidth(mDrawnLabel, mLabelPaint));
+        if (mDrawnFixedTextWidth) {
+            mLabelWidth = Math.max(mLabelWidth, width);
+            width = mLabelWidth;
+        }
+        return makeLayout(mDrawnLabel, mLabelPaint, width);
+    }
+
+    private StaticLayout makeDetailsLayout() {
+        int width = (int) Math.ceil(Layout.getDesiredWidth(mDrawnDetailsLabel, mDetailsPaint));
+        if (mDrawnFixedTextWidth) {
+            mDetailsWidth = Math.max(mDetailsWidth, width);
+            width = mDetailsWidth;
+        }
+        return makeLayout(mDrawnDetailsLabel, mDetailsPaint, width);
+    }
+
+    private StaticLayout makeLayout(CharSequence text, TextPaint paint, int width) {
+        width = Math.max(0, Math.min(width, mMaxTextWidth));
+        Layout.Alignment alignment = mDrawnFixedTextWidth
+                ? Layout.Alignment.ALIGN_CENTER : Layout.Alignment.ALIGN_NORMAL;
+        //noinspection deprecation
+        return new StaticLayout(text, paint, width, alignment, 1, 0, false);
+    }
+
+    private void copyPaints(HudTheme.Paints paints) {
+        for (int i = 0; i < mSpokePaints.length; i++) {
+            mSpokePaints[i].set(paints.spinnerSpokes[i]);
+        }
+        mPieFill.set(paints.pieFill);
+        mPieOutline.set(paints.pieOutline);
+        mAnnularProgress.set(paints.annularProgress);
+        mAnnularTrack.set(paints.annularTrack);
+        mBarOutline.set(paints.barOutline);
+        mBarFill.set(paints.barFill);
+    }
+
+    private int getIndicatorWidth(KProgressHUD.Style style) {
+        if (style == null) {
+            return 0;
+        }
+        return style == KProgressHUD.Style.BAR_DETERMINATE ? mBarWidth : mIndicatorSize;
+    }
+
+    private int getIndicatorHeight(KProgressHUD.Style style) {
+        if (style == null) {
+            return 0;
+        }
+        return style == KProgressHUD.Style.BAR_DETERMINATE ? mBarHeight : mIndicatorSize;
+    }
+
+    private void draw(Canvas canvas, KProgressHUD.Style style, long frameTimeNanos) {
+        int dimColor;
+        float cornerRadius;
+        long max;
+        float speed;
+        synchronized (mStateLock) {
+            dimColor = mDimColor;
+            cornerRadius = mCornerRadius;
+            max = mMax;
+            speed = mSpeed;
+        }
+        canvas.drawColor(dimColor, PorterDuff.Mode.SRC);
+        canvas.drawRoundRect(mBox, cornerRadius, cornerRadius, mBackgroundPaint);
+
+        // Same shapes as the style views, drawn from the latest progress as is
+        float fraction = max > 0 ? Math.max(0, Math.min(1, (float) mProgress / max)) : 0;
+        RectF bound = mShapeBound;
+        bound.set(mIndicatorBound);
+        if (style == KProgressHUD.Style.SPIN_INDETERMINATE) {
+            drawSpinner(canvas, getStep(frameTimeNanos, speed));
+        } else if (style == KProgressHUD.Style.PIE_DETERMINATE) {
+            bound.inset(mPieInset, mPieInset);
+            canvas.drawArc(bound, 270, fraction * 360, true, mPieFill);
+            canvas.drawCircle(bound.centerX(), bound.centerY(), bound.width() / 2, mPieOutline);
+        } else if (style == KProgressHUD.Style.ANNULAR_DETERMINATE) {
+            bound.inset(mPieInset, mPieInset);
+            float angle = fraction * 360;
+            canvas.drawArc(bound, 270, angle, false, mAnnularProgress);
+            canvas.drawArc(bound, 270 + angle, 360 - angle, false, mAnnularTrack);
+        } else if (style == KProgressHUD.Style.BAR_DETERMINATE) {
+            bound.inset(mBarInset, mBarInset);
+            canvas.drawRoundRect(bound, bound.height() / 2, bound.height() / 2, mBarOutline);
+            RectF indicator = mIndicatorBound;
+            bound.set(indicator.left + mBarGap, indicator.top + mBarGap,
+                    indicator.left + (indicator.width() - mBarGap) * fraction,
+                    indicator.bottom - mBarGap);
+            canvas.drawRoundRect(bound, bound.height() / 2, bound.height() / 2, mBarFill);
+        }
+
+        if (mLabelLayout != null) {
+            drawText(canvas, mLabelLayout, mBox.centerX() - mLabelLayout.getWidth() / 2f, mLabelTop);
+        }
+        if (mDetailsLayout != null) {
+            drawText(canvas, mDetailsLayout, mBox.centerX() - mDetailsLayout.getWidth() / 2f,
+                    mDetailsTop);
+        }
+    }
+
+    private int getStep(long frameTimeNanos, float speed) {
+        if (mStartTimeNanos < 0) {
+            mStartTimeNanos = frameTimeNanos;
+        }
+        double elapsedSeconds = (frameTimeNanos - mStartTimeNanos) / 1e9;
+        return (int) ((long) (elapsedSeconds * STEPS_PER_SECOND * speed) % SpinView.SPOKE_COUNT);
+    }
+
+    /**
+     * The spinner only changes once per step, so it is redrawn at that rate instead of on
+     * every display frame.
+     */
+    private void scheduleNextStep(long frameTimeNanos) {
+        float speed;
+        synchronized (mStateLock) {
+            speed = mSpeed;
+        }
+        if (speed <= 0) {
+            return;
+        }
+        double stepSeconds = 1 / (STEPS_PER_SECOND * speed);
+        double elapsedSeconds = (frameTimeNanos - mStartTimeNanos) / 1e9;
+        double nextStepSeconds = (Math.floor(elapsedSeconds / stepSeconds) + 1) * stepSeconds;
+        long delayMs = (long) Math.ceil((nextStepSeconds - elapsedSeconds) * 1000);
+        Handler handler = mHandler;
+        if (handler == null) {
+            return;
+        }
+        handler.removeCallbacks(mTickRunnable);
+        handler.postDelayed(mTickRunnable, Math.max(1, delayMs));
+    }
+
+    private void drawSpinner(Canvas canvas, int step) {
+        // Same geometry as SpinView, the leading spoke first, the others fading behind it
+        float size = Math.min(mIndicatorBound.width(), mIndicatorBound.height());
+        float halfWidth = size * SpinView.SPOKE_WIDTH / 2;
+        mShapeBound.set(-halfWidth, size * SpinView.SPOKE_INNER_RADIUS,
+                halfWidth, size * SpinView.SPOKE_OUTER_RADIUS);
+        float stepDegrees = 360f / SpinView.SPOKE_COUNT;
+        canvas.save();
+        canvas.translate(mIndicatorBound.centerX(), mIndicatorBound.centerY());
+        canvas.rotate(step * stepDegrees);
+        for (int i = 0; i < SpinView.SPOKE_COUNT; i++) {
+            canvas.drawRoundRect(mShapeBound, halfWidth, halfWidth, mSpokePaints[i]);
+            canvas.rotate(-stepDegrees);
+        }
+        canvas.restore();
+    }
+
+    private static void drawText(Canvas canvas, StaticLayout layout, float left, float top) {
+        canvas.save();
+        canvas.translate(left, top);
+        layout.draw(canvas);
+        canvas.restore();
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ *    Copyright 2015 Kaopiz Software Co., Ltd.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.kaopiz.kprogresshud;
+
+import android.content.Context;
+import android.graphics.Paint;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.util.DisplayMetrics;
+import android.util.TypedValue;
+
+/**
+ * Label text measured, shaped and broken into lines ahead of time, on any thread, with the
+ * metrics of the HUD labels. It plays the part of PrecomputedText, which only exists from
+ * API 28: with {@link KProgressHUD#setFlatRendering(boolean) flat rendering}, the prepared
+ * layout is drawn as is, so the main thread no longer shapes long or complex scripts itself.
+ * Text longer than the width it was prepared for is wrapped on several lines.
+ * The inflated layout and SURFACE mode only take the text of it and lay it out again, on the
+ * main thread and on the render thread respectively.
+ * Pass it to {@link KProgressHUD#setPrecomputedLabel(HudText)} or
+ * {@link KProgressHUD#setPrecomputedDetailsLabel(HudText)}, or let the HUD prepare the text with
+ * {@link KProgressHUD#setLabelAsync(CharSequence)}. Once passed to a HUD, it belongs to the
+ * main thread.
+ */
+public final class HudText {
+
+    // Same text sizes and padding as kprogresshud_hud.xml
+    static final float LABEL_TEXT_SIZE_SP = 16;
+    static final float DETAILS_TEXT_SIZE_SP = 13;
+    private static final int HUD_PADDING_DP = 16;
+
+    private final String mText;
+    private final StaticLayout mLayout;
+
+    private HudText(Context context, CharSequence text, float textSizeSp, int maxWidth) {
+        mText = text.toString();
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        paint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, textSizeSp, metrics));
+        if (maxWidth <= 0) {
+            maxWidth = getDefaultMaxWidth(context, metrics);
+        }
+        // Natural width if it fits, wrapped at the max width otherwise
+        int width = Math.min((int) Math.ceil(Layout.getDesiredWidth(mText, paint)), maxWidth);
+        //noinspection deprecation
+        mLayout = new StaticLayout(mText, paint, width, Layout.Alignment.ALIGN_NORMAL, 1, 0, false);
+    }
+
+    /**
+     * Width left to the labels of a HUD as wide as the narrow side of the screen, so that it
+     * still fits once the screen is rotated.
+     */
+    private static int getDefaultMaxWidth(Context context, DisplayMetrics metrics) {
+        int screenWidth = Math.min(metrics.widthPixels, metrics.heightPixels);
+        return Math.max(1, screenWidth - 2 * Helper.dpToPixel(HUD_PADDING_DP, context));
+    }
+
+    /**
+     * Prepare the text of a label, wrapped to fit a HUD as wide as the screen.
+     * Safe to call on any thread, meant for a background one.
+     * @param text Copied
+     */
+    public static HudText forLabel(Context context, CharSequence text) {
+        return new HudText(context, text, LABEL_TEXT_SIZE_SP, 0);
+    }
+
+    /**
+     * Prepare the text of a label. Safe to call on any thread, meant for a background one.
+     * @param text Copied
+     * @param maxWidth Width in pixels to wrap the text at, e.g. when the HUD is known to be
+     *                 narrower than the screen
+     */
+    public static HudText forLabel(Context context, CharSequence text, int maxWidth) {
+        return new HudText(context, text, LABEL_TEXT_SIZE_SP, maxWidth);
+    }
+
+    /**
+     * Prepare the text of a details label, wrapped to fit a HUD as wide as the screen.
+     * Safe to call on any thread, meant for a background one.
+     * @param text Copied
+     */
+    public static HudText forDetailsLabel(Context context, CharSequence text) {
+        return new HudText(context, text, DETAILS_TEXT_SIZE_SP, 0);
+    }
+
+    /**
+     * Prepare the text of a details label. Safe to call on any thread, meant for a background one.
+     * @param text Copied
+     * @param maxWidth Width in pixels to wrap the text at
+     */
+    public static HudText forDetailsLabel(Context context, CharSequence text, int maxWidth) {
+        return new HudText(context, text, DETAILS_TEXT_SIZE_SP, maxWidth);
+    }
+
+    public CharSequence getText() {
+        return mText;
+    }
+
+    /**
+     * @return The prepared layout. Its paint belongs to this text, HUDs may only change it
+     * while drawing and must restore it after.
+     */
+    StaticLayout getLayout() {
+        return mLayout;
+    }
+
+    /**
+     * @return Whether the prepared layout can be drawn in place of one built with this paint
+     * and width limit, i.e. it was laid out with the same text size, no wider than the limit
+     */
+    boolean fits(TextPaint paint, int maxWidth) {
+        return mLayout.getWidth() <= maxWidth
+                && mLayout.getPaint().getTextSize() == paint.getTextSize();
+    }
+}
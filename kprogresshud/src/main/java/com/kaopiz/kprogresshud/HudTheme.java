@@ -0,0 +1,295 @@
+/*
+ *    Copyright 2015 Kaopiz Software Co., Ltd.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.kaopiz.kprogresshud;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.GradientDrawable;
+
+/**
+ * Immutable look of a HUD, built once and shared by any number of HUDs with
+ * {@link KProgressHUD#setTheme(HudTheme)}. The Paints of the built-in styles and the background
+ * drawable state are created once per theme and shared by every HUD that uses it.
+ */
+public final class HudTheme {
+
+    private static HudTheme sDefault;
+
+    private final int mBackgroundColor;
+    private final float mCornerRadius;
+    private final float mDimAmount;
+    private final int mLabelColor;
+    private final int mDetailsLabelColor;
+    private final int mProgressColor;
+    private final int mTrackColor;
+
+    // Rendering objects, built on first use for the density of the screen
+    private float mDensity;
+    private Paints mPaints;
+    private Drawable.ConstantState mBackgroundState;
+
+    private HudTheme(Builder builder) {
+        mBackgroundColor = builder.mBackgroundColor;
+        mCornerRadius = builder.mCornerRadius;
+        mDimAmount = builder.mDimAmount;
+        mLabelColor = builder.mLabelColor;
+        mDetailsLabelColor = builder.mDetailsLabelColor;
+        mProgressColor = builder.mProgressColor;
+        mTrackColor = builder.mTrackColor;
+    }
+
+    /**
+     * @return The theme that HUDs use unless told otherwise, shared by the whole process as
+     * long as the resource colors of the given context match it
+     */
+    @SuppressWarnings("deprecation")
+    public static synchronized HudTheme getDefault(Context context) {
+        // Colors from resources, so that apps can still override them, e.g. for night mode.
+        // They are resolved every time, a configuration change may have switched them.
+        Resources resources = context.getResources();
+        int backgroundColor = resources.getColor(R.color.kprogresshud_default_color);
+        int trackColor = resources.getColor(R.color.kprogresshud_grey_color);
+        if (sDefault == null || sDefault.mBackgroundColor != backgroundColor
+                || sDefault.mTrackColor != trackColor) {
+            Builder builder = new Builder();
+            builder.mBackgroundColor = backgroundColor;
+            builder.mTrackColor = trackColor;
+            sDefault = builder.build();
+        }
+        return sDefault;
+    }
+
+    /**
+     * @return A builder starting from the values of this theme
+     */
+    public Builder buildUpon() {
+        Builder builder = new Builder();
+        builder.mBackgroundColor = mBackgroundColor;
+        builder.mCornerRadius = mCornerRadius;
+        builder.mDimAmount = mDimAmount;
+        builder.mLabelColor = mLabelColor;
+        builder.mDetailsLabelColor = mDetailsLabelColor;
+        builder.mProgressColor = mProgressColor;
+        builder.mTrackColor = mTrackColor;
+        return builder;
+    }
+
+    public int getBackgroundColor() {
+        return mBackgroundColor;
+    }
+
+    public float getCornerRadius() {
+        return mCornerRadius;
+    }
+
+    public float getDimAmount() {
+        return mDimAmount;
+    }
+
+    public int getLabelColor() {
+        return mLabelColor;
+    }
+
+    public int getDetailsLabelColor() {
+        return mDetailsLabelColor;
+    }
+
+    public int getProgressColor() {
+        return mProgressColor;
+    }
+
+    public int getTrackColor() {
+        return mTrackColor;
+    }
+
+    synchronized Paints getPaints(Context context) {
+        updateDensity(context);
+        if (mPaints == null) {
+            mPaints = new Paints(this, context);
+        }
+        return mPaints;
+    }
+
+    /**
+     * @return A background drawable sharing its state with every other one of this theme
+     */
+    synchronized Drawable newBackground(Context context) {
+        updateDensity(context);
+        if (mBackgroundState == null) {
+            mBackgroundState = createBackground(mBackgroundColor,
+                    Helper.dpToPixel(mCornerRadius, context)).getConstantState();
+        }
+        return mBackgroundState.newDrawable(context.getResources());
+    }
+
+    static GradientDrawable createBackground(int color, float cornerRadiusPx) {
+        GradientDrawable drawable = new GradientDrawable();
+        drawable.setShape(GradientDrawable.RECTANGLE);
+        drawable.setColor(color);
+        drawable.setCornerRadius(cornerRadiusPx);
+        return drawable;
+    }
+
+    private void updateDensity(Context context) {
+        float density = context.getResources().getDisplayMetrics().density;
+        if (density != mDensity) {
+            mDensity = density;
+            mPaints = null;
+            mBackgroundState = null;
+        }
+    }
+
+    /**
+     * Paints of the built-in styles. Shared, they must never be modified.
+     */
+    static final class Paints {
+        final Paint pieFill;
+        final Paint pieOutline;
+        final Paint annularProgress;
+        final Paint annularTrack;
+        final Paint barOutline;
+        final Paint barFill;
+        // From the leading spoke to the most faded one
+        final Paint[] spinnerSpokes;
+
+        private Paints(HudTheme theme, Context context) {
+            pieFill = new Paint(Paint.ANTI_ALIAS_FLAG);
+            pieFill.setStyle(Paint.Style.FILL_AND_STROKE);
+            pieFill.setStrokeWidth(Helper.dpToPixel(0.1f, context));
+            pieFill.setColor(theme.mProgressColor);
+
+            pieOutline = new Paint(Paint.ANTI_ALIAS_FLAG);
+            pieOutline.setStyle(Paint.Style.STROKE);
+            pieOutline.setStrokeWidth(Helper.dpToPixel(2, context));
+            pieOutline.setColor(theme.mProgressColor);
+
+            annularProgress = new Paint(Paint.ANTI_ALIAS_FLAG);
+            annularProgress.setStyle(Paint.Style.STROKE);
+            annularProgress.setStrokeWidth(Helper.dpToPixel(3, context));
+            annularProgress.setColor(theme.mProgressColor);
+
+            annularTrack = new Paint(Paint.ANTI_ALIAS_FLAG);
+            annularTrack.setStyle(Paint.Style.STROKE);
+            annularTrack.setStrokeWidth(Helper.dpToPixel(3, context));
+            annularTrack.setColor(theme.mTrackColor);
+
+            barOutline = new Paint(Paint.ANTI_ALIAS_FLAG);
+            barOutline.setStyle(Paint.Style.STROKE);
+            barOutline.setStrokeWidth(Helper.dpToPixel(2, context));
+            barOutline.setColor(theme.mProgressColor);
+
+            barFill = new Paint(Paint.ANTI_ALIAS_FLAG);
+            barFill.setStyle(Paint.Style.FILL);
+            barFill.setColor(theme.mProgressColor);
+
+            // Same fading as the former spinner image, from fully opaque down to 31 of 255
+            spinnerSpokes = new Paint[SpinView.SPOKE_COUNT];
+            int baseAlpha = Color.alpha(theme.mProgressColor);
+            for (int i = 0; i < spinnerSpokes.length; i++) {
+                Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+                paint.setStyle(Paint.Style.FILL);
+                paint.setColor(theme.mProgressColor);
+                int alpha = 255 - i * (255 - 31) / (spinnerSpokes.length - 1);
+                paint.setAlpha(baseAlpha * alpha / 255);
+                spinnerSpokes[i] = paint;
+            }
+        }
+    }
+
+    /**
+     * Implemented by the built-in style views to take their Paints from a theme.
+     */
+    interface Themed {
+        void setTheme(HudTheme theme);
+    }
+
+    public static final class Builder {
+
+        private int mBackgroundColor = Color.parseColor("#b1000000");
+        private float mCornerRadius = 10;
+        private float mDimAmount = 0;
+        private int mLabelColor = Color.WHITE;
+        private int mDetailsLabelColor = Color.WHITE;
+        private int mProgressColor = Color.WHITE;
+        private int mTrackColor = Color.parseColor("#449E9E9E");
+
+        /**
+         * Start from the same values as the default theme.
+         */
+        public Builder() {
+        }
+
+        /**
+         * @param color ARGB color of the HUD background
+         */
+        public Builder setBackgroundColor(int color) {
+            mBackgroundColor = color;
+            return this;
+        }
+
+        /**
+         * @param radius Corner radius in dp
+         */
+        public Builder setCornerRadius(float radius) {
+            mCornerRadius = radius;
+            return this;
+        }
+
+        /**
+         * @param dimAmount May take value from 0 to 1
+         */
+        public Builder setDimAmount(float dimAmount) {
+            if (dimAmount >= 0 && dimAmount <= 1) {
+                mDimAmount = dimAmount;
+            }
+            return this;
+        }
+
+        public Builder setLabelColor(int color) {
+            mLabelColor = color;
+            return this;
+        }
+
+        public Builder setDetailsLabelColor(int color) {
+            mDetailsLabelColor = color;
+            return this;
+        }
+
+        /**
+         * @param color Color of the spinner and of the progress drawn by the built-in styles
+         */
+        public Builder setProgressColor(int color) {
+            mProgressColor = color;
+            return this;
+        }
+
+        /**
+         * @param color Color of the remaining part of the annular style
+         */
+        public Builder setTrackColor(int color) {
+            mTrackColor = color;
+            return this;
+        }
+
+        public HudTheme build() {
+            return new HudTheme(this);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ *    Copyright 2015 Kaopiz Software Co., Ltd.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.kaopiz.kprogresshud;
+
+/**
+ * Grace time, min show time and delayed dismiss of one HUD, run on a {@link HudScheduler}.
+ * Decides when the HUD goes on and off screen, the window itself is left to a {@link Target}.
+ * Main thread only.
+ */
+final class HudTimers {
+
+    interface Target {
+        boolean isShowing();
+
+        /**
+         * A show starts, the HUD is put on screen now or once the grace time runs out.
+         */
+        void onShowStarted();
+
+        void onGraceTimeElapsed();
+
+        /**
+         * A HUD that is showing, or waiting for its grace time, starts to be dismissed.
+         * Called once per show.
+         */
+        void onDismissStarted();
+
+        /**
+         * Put the HUD on screen.
+         * @return false if it cannot be shown, e.g. its Activity is gone
+         */
+        boolean present();
+
+        /**
+         * Take the HUD off screen, if it is showing.
+         */
+        void remove();
+    }
+
+    private final Target mTarget;
+    // Timers reuse the same Runnables, so a show and dismiss cycle does not allocate
+    private HudScheduler mScheduler;
+    private int mGraceTimeMs;
+    private int mMinShowTimeMs;
+    private long mShownAtMs;
+    private boolean mShowPending;
+    private boolean mDismissPending;
+    private boolean mFinished;
+    // Set once the current show is being dismissed, even if a delay keeps it on screen
+    private boolean mDismissStarted;
+    private final Runnable mGraceRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mShowPending = false;
+            mTarget.onGraceTimeElapsed();
+            if (!mFinished) {
+                present();
+            }
+        }
+    };
+    private final Runnable mDismissRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mDismissPending = false;
+            dismiss();
+        }
+    };
+
+    HudTimers(Target target, HudScheduler scheduler) {
+        mTarget = target;
+        mScheduler = scheduler;
+    }
+
+    /**
+     * Cancel every timer and go back to no grace and no min show time.
+     */
+    public void reset(HudScheduler scheduler) {
+        cancelShow();
+        cancelDismiss();
+        mScheduler = scheduler;
+        mGraceTimeMs = 0;
+        mMinShowTimeMs = 0;
+        mFinished = false;
+        mDismissStarted = false;
+    }
+
+    /**
+     * Must not be changed while a timer is pending.
+     */
+    public void setScheduler(HudScheduler scheduler) {
+        mScheduler = scheduler;
+    }
+
+    public void setGraceTime(int graceTimeMs) {
+        mGraceTimeMs = graceTimeMs;
+    }
+
+    public void setMinShowTime(int minShowTimeMs) {
+        mMinShowTimeMs = minShowTimeMs;
+    }
+
+    /**
+     * @return Whether the HUD is showing, or will be once its grace time runs out, and is not
+     * waiting for a dismiss
+     */
+    public boolean isShowRequested() {
+        return mShowPending || (mTarget.isShowing() && !mDismissPending);
+    }
+
+    /**
+     * @return Whether the HUD was dismissed since the last show, even if a min show time or
+     * delay still keeps it on screen
+     */
+    public boolean isFinished() {
+        return mFinished;
+    }
+
+    public void show() {
+        if (mDismissPending) {
+            // Still on screen for its min show time, keep it there
+            cancelDismiss();
+            mFinished = false;
+            mDismissStarted = false;
+        } else if (!isShowRequested()) {
+            mFinished = false;
+            mDismissStarted = false;
+            mTarget.onShowStarted();
+            if (mGraceTimeMs == 0) {
+                present();
+            } else {
+                mShowPending = true;
+                mScheduler.schedule(mGraceRunnable, mGraceTimeMs);
+            }
+        }
+    }
+
+    private void present() {
+        if (mTarget.present()) {
+            mShownAtMs = mScheduler.now();
+        } else {
+            // Nothing went on screen, there is nothing left to wait for
+            mFinished = true;
+        }
+    }
+
+    /**
+     * Dismiss once the min show time is over.
+     */
+    public void dismiss() {
+        startDismiss();
+        mFinished = true;
+        cancelShow();
+        if (mTarget.isShowing()) {
+            long remainingMs = mShownAtMs + mMinShowTimeMs - mScheduler.now();
+            if (remainingMs > 0) {
+                if (!mDismissPending) {
+                    mDismissPending = true;
+                    mScheduler.schedule(mDismissRunnable, remainingMs);
+                }
+                return;
+            }
+        }
+        dismissNow();
+    }
+
+    /**
+     * Dismiss after a delay, then once the min show time is over. A show in the meantime
+     * cancels the dismiss.
+     */
+    public void dismiss(long delayMs) {
+        if (delayMs <= 0) {
+            dismiss();
+            return;
+        }
+        startDismiss();
+        cancelShow();
+        if (mTarget.isShowing()) {
+            mDismissPending = true;
+            mScheduler.schedule(mDismissRunnable, delayMs);
+        } else {
+            dismissNow();
+        }
+    }
+
+    /**
+     * Dismiss right away, ignoring the min show time.
+     */
+    public void dismissNow() {
+        startDismiss();
+        mFinished = true;
+        cancelShow();
+        cancelDismiss();
+        mTarget.remove();
+    }
+
+    private void startDismiss() {
+        if (!mDismissStarted && (mShowPending || mTarget.isShowing())) {
+            mDismissStarted = true;
+            mTarget.onDismissStarted();
+        }
+    }
+
+    private void cancelShow() {
+        if (mShowPending) {
+            mShowPending = false;
+            mScheduler.cancel(mGraceRunnable);
+        }
+    }
+
+    private void cancelDismiss() {
+        if (mDismissPending) {
+            mDismissPending = false;
+            mScheduler.cancel(mDismissRunnable);
+        }
+    }
+}
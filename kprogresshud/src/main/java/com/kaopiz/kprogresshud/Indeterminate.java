@@ -20,6 +20,8 @@ package com.kaopiz.kprogresshud;
  * If a view implements this interface passed to the HUD as a custom view, its animation
  * speed can be change by calling setAnimationSpeed() on the HUD.
  * This interface only provides convenience, how animation speed work depends on the view implementation.
+ * Implementations are encouraged to animate from {@link FrameClock} ticks, computing their state
+ * from the elapsed frame time, rather than running their own message loop.
  */
 public interface Indeterminate {
     void setAnimationSpeed(float scale);
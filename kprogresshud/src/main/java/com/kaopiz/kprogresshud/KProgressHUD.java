@@ -19,56 +19,287 @@ package com.kaopiz.kprogresshud;
 import android.app.Activity;
 import android.app.Dialog;
 import android.content.Context;
+import android.content.ContextWrapper;
+import android.annotation.TargetApi;
 import android.content.DialogInterface;
 import android.graphics.Color;
+import android.graphics.PixelFormat;
 import android.graphics.drawable.ColorDrawable;
+import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
-import android.os.Handler;
+import android.os.Looper;
+import android.text.Layout;
 import android.view.Gravity;
+import android.view.KeyEvent;
+import android.view.LayoutInflater;
+import android.view.SurfaceView;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.view.Window;
 import android.view.WindowManager;
 import android.widget.FrameLayout;
 import android.widget.TextView;
 
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
 public class KProgressHUD {
 
     public enum Style {
         SPIN_INDETERMINATE, PIE_DETERMINATE, ANNULAR_DETERMINATE, BAR_DETERMINATE
     }
 
-    // To avoid redundant APIs, make the HUD as a wrapper class around a Dialog
-    private ProgressDialog mProgressDialog;
+    /**
+     * How the HUD is put on screen.
+     * DIALOG shows it in its own window. OVERLAY adds it as a child view on top of the
+     * Activity's decor view, which avoids a window transaction on every show and dismiss.
+     * SURFACE draws the whole HUD into a SurfaceView from a render thread of its own. Once on
+     * screen, it keeps animating and shows new labels and progress while the main thread is
+     * blocked, and labels and progress may then be set from any thread. It draws the built-in
+     * styles only, without progress smoothing, a custom view is not shown.
+     */
+    public enum Mode {
+        DIALOG, OVERLAY, SURFACE
+    }
+
+    /**
+     * How progress values are counted, for the rate shown by {@link #setRateEstimation(RateUnit)}.
+     * ITEMS shows e.g. "12.5/s", BYTES shows e.g. "1.5 MB/s".
+     */
+    public enum RateUnit {
+        ITEMS, BYTES
+    }
+
+    /**
+     * Work bound to a HUD with {@link #bind(Executor, ProgressTask)}.
+     */
+    public interface ProgressTask {
+        /**
+         * Runs on the executor. Any exception ends the work, like a normal return.
+         * @param progress Receives the progress of the work, from any thread
+         */
+        void run(ProgressReporter progress) throws Exception;
+    }
+
+    public interface ProgressReporter {
+        /**
+         * Same as {@link KProgressHUD#setProgress(long)}, coalesced and applied once per frame.
+         */
+        void setProgress(long progress);
+    }
+
+    // View state is kept apart from the presenter so it survives a change of mode
+    private HudViews mHudViews;
+    // Created on first show, for the current mode
+    private Presenter mPresenter;
+    private Mode mMode;
+    private Mode mPresenterMode;
+    private boolean mFlatRendering;
+    private boolean mPresenterFlatRendering;
+    private boolean mCancellable;
+    private DialogInterface.OnCancelListener mCancelListener;
+    // Installed on every presenter, forwards to mCancelListener
+    private final DialogInterface.OnCancelListener mCancelDispatcher =
+            new DialogInterface.OnCancelListener() {
+        @Override
+        public void onCancel(DialogInterface dialog) {
+            dismissNow();
+            if (mBinding != null) {
+                TaskBinding binding = mBinding;
+                mBinding = null;
+                binding.cancel();
+            }
+            if (mCancelListener != null) {
+                mCancelListener.onCancel(dialog);
+            }
+        }
+    };
+    // Work that dismisses the HUD when it ends, main thread only
+    private TaskBinding mBinding;
+    private HudTheme mTheme;
     private float mDimAmount;
     private int mWindowColor;
     private float mCornerRadius;
     private Context mContext;
 
     private int mAnimateSpeed;
+    private boolean mRenderThreadAnimation;
+    private boolean mFixedLabelWidth;
 
-    private int mMaxProgress;
+    private long mMaxProgress;
+    private RateUnit mRateUnit;
     private boolean mIsAutoDismiss;
+    private int mProgressSmoothingMs;
+    private float mProgressVelocityLimit;
+
+    // Latest progress written by any thread, applied on the main thread once per frame
+    private final AtomicLong mPendingProgress = new AtomicLong();
+    private final AtomicBoolean mProgressApplyScheduled = new AtomicBoolean();
+    private final Runnable mApplyProgressRunnable = new Runnable() {
+        @Override
+        public void run() {
+            // Clear the flag before reading so a value written meanwhile schedules another apply
+            mProgressApplyScheduled.set(false);
+            mHudViews.setProgress(mPendingProgress.get());
+        }
+    };
+
+    // Latest labels laid out off the main thread, shown at the next frame
+    private final AtomicReference<PendingText> mPendingLabel = new AtomicReference<>();
+    private final AtomicReference<PendingText> mPendingDetailsLabel = new AtomicReference<>();
+    // Bumped by every label write, so that async text set before a later write is dropped
+    private final AtomicInteger mLabelGeneration = new AtomicInteger();
+    private final AtomicInteger mDetailsLabelGeneration = new AtomicInteger();
+    private final AtomicBoolean mTextApplyScheduled = new AtomicBoolean();
+    private final Runnable mApplyTextRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mTextApplyScheduled.set(false);
+            PendingText label = mPendingLabel.getAndSet(null);
+            if (label != null && label.generation == mLabelGeneration.get()) {
+                mHudViews.setPrecomputedLabel(label.text, mHudViews.mLabelColor);
+            }
+            PendingText detailsLabel = mPendingDetailsLabel.getAndSet(null);
+            if (detailsLabel != null && detailsLabel.generation == mDetailsLabelGeneration.get()) {
+                mHudViews.setPrecomputedDetailsLabel(detailsLabel.text, mHudViews.mDetailColor);
+            }
+        }
+    };
+
+    // Edits applied from any thread, merged until the main thread commits them together
+    private final Editor mPendingEdit = new Editor(this);
+    private final Editor mCommittingEdit = new Editor(this);
+    private boolean mEditScheduled;
+    private final Runnable mCommitEditRunnable = new Runnable() {
+        @Override
+        public void run() {
+            commitPendingEdit();
+        }
+    };
+
+    // Views built ahead of time by prewarm(), taken by the first presenter that needs them
+    private final AtomicReference<PrewarmedViews> mPrewarmed = new AtomicReference<>();
+
+    // Set when the HUD lets go of its Activity once the Activity is destroyed
+    private boolean mLifecycleAware;
+    private boolean mHostReleased;
+    private final HudLifecycle.Observer mLifecycleObserver = new HudLifecycle.Observer() {
+        @Override
+        public void onHostDestroyed(Activity activity) {
+            releaseHost();
+        }
+    };
+
+    private static HudScheduler sDefaultScheduler;
+
+    private final HudTimers mTimers = new HudTimers(new HudTimers.Target() {
+        @Override
+        public boolean isShowing() {
+            return KProgressHUD.this.isShowing();
+        }
+
+        @Override
+        public void onShowStarted() {
+            reportEvent(HudMetricsListener.Event.SHOW);
+            mHudViews.resetRate();
+        }
+
+        @Override
+        public void onGraceTimeElapsed() {
+            reportEvent(HudMetricsListener.Event.GRACE_TIME_ELAPSED);
+        }
+
+        @Override
+        public void onDismissStarted() {
+            reportEvent(HudMetricsListener.Event.DISMISS);
+        }
+
+        @Override
+        public boolean present() {
+            return KProgressHUD.this.present();
+        }
+
+        @Override
+        public void remove() {
+            removeWindow();
+            if (mRemovedCallback != null) {
+                Runnable callback = mRemovedCallback;
+                mRemovedCallback = null;
+                callback.run();
+            }
+        }
+    }, getDefaultScheduler());
+    // Run once the HUD is off screen after dismiss(Runnable), unless shown again meanwhile
+    private Runnable mRemovedCallback;
 
-    private int mGraceTimeMs;
-    private Handler mGraceTimer;
-    private boolean mFinished;
+    private static HudMetricsListener sMetricsListener;
+    private HudMetricsListener mMetricsListener;
+    // Progress updates since the HUD was last removed, for the metrics listeners
+    private final AtomicLong mProgressReceived = new AtomicLong();
+    private long mProgressApplied;
+    private final WindowTracker mWindowTracker = new WindowTracker();
 
     public KProgressHUD(Context context) {
         mContext = context;
-        mProgressDialog = new ProgressDialog(context);
-        mDimAmount = 0;
-        //noinspection deprecation
-        mWindowColor = context.getResources().getColor(R.color.kprogresshud_default_color);
+        mHudViews = new HudViews();
+        initDefaults();
+    }
+
+    private void initDefaults() {
+        mMode = Mode.DIALOG;
+        mFlatRendering = false;
+        // Same as a newly constructed Dialog
+        mCancellable = true;
+        mCancelListener = null;
+        mBinding = null;
+        mTheme = HudTheme.getDefault(mContext);
+        mDimAmount = mTheme.getDimAmount();
+        mWindowColor = mTheme.getBackgroundColor();
         mAnimateSpeed = 1;
-        mCornerRadius = 10;
+        mRenderThreadAnimation = false;
+        mFixedLabelWidth = false;
+        mCornerRadius = mTheme.getCornerRadius();
+        mMaxProgress = 0;
+        mRateUnit = null;
         mIsAutoDismiss = true;
-        mGraceTimeMs = 0;
-        mFinished = false;
+        mProgressSmoothingMs = 0;
+        mProgressVelocityLimit = 0;
+        mTimers.reset(getDefaultScheduler());
+        mPendingProgress.set(0);
 
         setStyle(Style.SPIN_INDETERMINATE);
     }
 
+    /**
+     * Bring a dismissed HUD back to the state of a newly created one, keeping its dialog and
+     * inflated views so they do not have to be built again. Used by {@link HudPool}.
+     */
+    void reset() {
+        setLifecycleAware(false);
+        dismissNow();
+        if (mBinding != null) {
+            mBinding.stop();
+        }
+        synchronized (mPendingEdit) {
+            mPendingEdit.clear();
+        }
+        dropPendingLabel();
+        dropPendingDetailsLabel();
+        mHudViews.reset();
+        initDefaults();
+        if (mPresenter != null) {
+            mPresenter.setCancelable(mCancellable);
+        }
+    }
+
     /**
      * Create a new HUD. Have the same effect as the constructor.
      * For convenient only.
@@ -96,23 +327,48 @@ public class KProgressHUD {
      * @return Current HUD
      */
     public KProgressHUD setStyle(Style style) {
-        View view = null;
-        switch (style) {
-            case SPIN_INDETERMINATE:
-                view = new SpinView(mContext);
-                break;
-            case PIE_DETERMINATE:
-                view = new PieView(mContext);
-                break;
-            case ANNULAR_DETERMINATE:
-                view = new AnnularView(mContext);
-                break;
-            case BAR_DETERMINATE:
-                view = new BarView(mContext);
-                break;
-            // No custom view style here, because view will be added later
-        }
-        mProgressDialog.setView(view);
+        mHudViews.setStyle(style);
+        return this;
+    }
+
+    /**
+     * Specify how the HUD is presented. Takes effect on the next show.
+     * @param mode One of the KProgressHUD.Mode values. Default is DIALOG.
+     *             OVERLAY and SURFACE need the HUD to be created with an Activity context.
+     * @return Current HUD
+     */
+    public KProgressHUD setMode(Mode mode) {
+        mMode = mode;
+        return this;
+    }
+
+    /**
+     * Draw the HUD with a single view instead of the inflated layout. The background and labels
+     * are drawn directly, so label updates and show are cheaper. Takes effect on the next show.
+     * @param flatRendering Default is false
+     * @return Current HUD
+     */
+    public KProgressHUD setFlatRendering(boolean flatRendering) {
+        mFlatRendering = flatRendering;
+        return this;
+    }
+
+    /**
+     * Apply a shared theme: background color, corner radius, dim amount, label colors and the
+     * colors of the built-in styles. HUDs that use the same theme share its Paints and
+     * background drawable state. Values set later with the individual setters override it.
+     * @param theme Built once with {@link HudTheme.Builder}, usually kept for the whole app
+     * @return Current HUD
+     */
+    public KProgressHUD setTheme(HudTheme theme) {
+        mTheme = theme;
+        mDimAmount = theme.getDimAmount();
+        mWindowColor = theme.getBackgroundColor();
+        mCornerRadius = theme.getCornerRadius();
+        mHudViews.setLabel(mHudViews.mHasLabel ? mHudViews.mLabel : null, theme.getLabelColor());
+        mHudViews.setDetailsLabel(mHudViews.mHasDetailsLabel ? mHudViews.mDetailsLabel : null,
+                theme.getDetailsLabelColor());
+        mHudViews.applyTheme();
         return this;
     }
 
@@ -135,7 +391,7 @@ public class KProgressHUD {
      * @return Current HUD
      */
     public KProgressHUD setSize(int width, int height) {
-        mProgressDialog.setSize(width, height);
+        mHudViews.setSize(width, height);
         return this;
     }
 
@@ -180,12 +436,25 @@ public class KProgressHUD {
         return this;
     }
 
+    /**
+     * Animate the spinner of the SPIN_INDETERMINATE style on the RenderThread, so it keeps
+     * turning while the main thread is busy. Needs API 25 and hardware acceleration and only
+     * applies at the default animation speed, otherwise the spinner is animated as usual.
+     * @param renderThreadAnimation Default is false
+     * @return Current HUD
+     */
+    public KProgressHUD setRenderThreadAnimation(boolean renderThreadAnimation) {
+        mRenderThreadAnimation = renderThreadAnimation;
+        return this;
+    }
+
     /**
      * Optional label to be displayed.
      * @return Current HUD
      */
     public KProgressHUD setLabel(String label) {
-        mProgressDialog.setLabel(label);
+        dropPendingLabel();
+        mHudViews.setLabel(label, mHudViews.mLabelColor);
         return this;
     }
 
@@ -194,7 +463,72 @@ public class KProgressHUD {
      * @return Current HUD
      */
     public KProgressHUD setLabel(String label, int color) {
-        mProgressDialog.setLabel(label, color);
+        dropPendingLabel();
+        mHudViews.setLabel(label, color);
+        return this;
+    }
+
+    /**
+     * Optional label to be displayed. The text is copied, so a mutable buffer such as a
+     * StringBuilder can be reused for every update without allocating.
+     * @return Current HUD
+     */
+    public KProgressHUD setLabel(CharSequence label) {
+        dropPendingLabel();
+        mHudViews.setLabel(label, mHudViews.mLabelColor);
+        return this;
+    }
+
+    /**
+     * Optional label to be displayed. The text is copied, the buffer can be reused.
+     * @return Current HUD
+     */
+    public KProgressHUD setLabel(CharSequence label, int color) {
+        dropPendingLabel();
+        mHudViews.setLabel(label, color);
+        return this;
+    }
+
+    /**
+     * Optional label to be displayed, from a reusable char buffer. The chars are copied.
+     * @return Current HUD
+     */
+    public KProgressHUD setLabel(char[] text, int start, int length) {
+        dropPendingLabel();
+        mHudViews.setLabel(text, start, length);
+        return this;
+    }
+
+    /**
+     * Optional label to be displayed, laid out ahead of time with {@link HudText#forLabel}.
+     * @return Current HUD
+     */
+    public KProgressHUD setPrecomputedLabel(HudText label) {
+        dropPendingLabel();
+        mHudViews.setPrecomputedLabel(label, mHudViews.mLabelColor);
+        return this;
+    }
+
+    /**
+     * Optional label to be displayed, laid out ahead of time with {@link HudText#forLabel}.
+     * @return Current HUD
+     */
+    public KProgressHUD setPrecomputedLabel(HudText label, int color) {
+        dropPendingLabel();
+        mHudViews.setPrecomputedLabel(label, color);
+        return this;
+    }
+
+    /**
+     * Set the label from any thread. The text is copied and laid out off the main thread,
+     * on the calling thread or, from the main thread, in the background, then shown at the
+     * next frame. The latest text wins. The main thread is only spared the layout with
+     * {@link #setFlatRendering(boolean) flat rendering}, see {@link HudText}.
+     * @param label Must not be null
+     * @return Current HUD
+     */
+    public KProgressHUD setLabelAsync(CharSequence label) {
+        precomputeText(label, false);
         return this;
     }
 
@@ -203,7 +537,8 @@ public class KProgressHUD {
      * @return Current HUD
      */
     public KProgressHUD setDetailsLabel(String detailsLabel) {
-        mProgressDialog.setDetailsLabel(detailsLabel);
+        dropPendingDetailsLabel();
+        mHudViews.setDetailsLabel(detailsLabel, mHudViews.mDetailColor);
         return this;
     }
 
@@ -212,7 +547,139 @@ public class KProgressHUD {
      * @return Current HUD
      */
     public KProgressHUD setDetailsLabel(String detailsLabel, int color) {
-        mProgressDialog.setDetailsLabel(detailsLabel, color);
+        dropPendingDetailsLabel();
+        mHudViews.setDetailsLabel(detailsLabel, color);
+        return this;
+    }
+
+    /**
+     * Optional detail description to be displayed. The text is copied, so a mutable buffer
+     * such as a StringBuilder can be reused for every update without allocating.
+     * @return Current HUD
+     */
+    public KProgressHUD setDetailsLabel(CharSequence detailsLabel) {
+        dropPendingDetailsLabel();
+        mHudViews.setDetailsLabel(detailsLabel, mHudViews.mDetailColor);
+        return this;
+    }
+
+    /**
+     * Optional detail description to be displayed. The text is copied, the buffer can be reused.
+     * @return Current HUD
+     */
+    public KProgressHUD setDetailsLabel(CharSequence detailsLabel, int color) {
+        dropPendingDetailsLabel();
+        mHudViews.setDetailsLabel(detailsLabel, color);
+        return this;
+    }
+
+    /**
+     * Optional detail description to be displayed, from a reusable char buffer.
+     * The chars are copied.
+     * @return Current HUD
+     */
+    public KProgressHUD setDetailsLabel(char[] text, int start, int length) {
+        dropPendingDetailsLabel();
+        mHudViews.setDetailsLabel(text, start, length);
+        return this;
+    }
+
+    /**
+     * Optional detail description to be displayed, laid out ahead of time with
+     * {@link HudText#forDetailsLabel}.
+     * @return Current HUD
+     */
+    public KProgressHUD setPrecomputedDetailsLabel(HudText detailsLabel) {
+        dropPendingDetailsLabel();
+        mHudViews.setPrecomputedDetailsLabel(detailsLabel, mHudViews.mDetailColor);
+        return this;
+    }
+
+    /**
+     * Optional detail description to be displayed, laid out ahead of time with
+     * {@link HudText#forDetailsLabel}.
+     * @return Current HUD
+     */
+    public KProgressHUD setPrecomputedDetailsLabel(HudText detailsLabel, int color) {
+        dropPendingDetailsLabel();
+        mHudViews.setPrecomputedDetailsLabel(detailsLabel, color);
+        return this;
+    }
+
+    /**
+     * Set the details label from any thread, laid out off the main thread like
+     * {@link #setLabelAsync(CharSequence)}.
+     * @param detailsLabel Must not be null
+     * @return Current HUD
+     */
+    public KProgressHUD setDetailsLabelAsync(CharSequence detailsLabel) {
+        precomputeText(detailsLabel, true);
+        return this;
+    }
+
+    private void precomputeText(CharSequence text, final boolean details) {
+        if (text == null) {
+            throw new RuntimeException("Label must not be null!");
+        }
+        final Context context = mContext;
+        final int generation =
+                (details ? mDetailsLabelGeneration : mLabelGeneration).incrementAndGet();
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            onTextPrecomputed(details ? HudText.forDetailsLabel(context, text)
+                    : HudText.forLabel(context, text), details, generation);
+            return;
+        }
+        // The serial executor keeps the texts in the order they were set
+        final String copy = text.toString();
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                onTextPrecomputed(details ? HudText.forDetailsLabel(context, copy)
+                        : HudText.forLabel(context, copy), details, generation);
+            }
+        });
+    }
+
+    private void dropPendingLabel() {
+        mLabelGeneration.incrementAndGet();
+        mPendingLabel.set(null);
+    }
+
+    private void dropPendingDetailsLabel() {
+        mDetailsLabelGeneration.incrementAndGet();
+        mPendingDetailsLabel.set(null);
+    }
+
+    /**
+     * Async label text, with the label write it belongs to.
+     */
+    private static final class PendingText {
+        final HudText text;
+        final int generation;
+
+        PendingText(HudText text, int generation) {
+            this.text = text;
+            this.generation = generation;
+        }
+    }
+
+    private void onTextPrecomputed(HudText text, boolean details, int generation) {
+        (details ? mPendingDetailsLabel : mPendingLabel).set(new PendingText(text, generation));
+        if (mTextApplyScheduled.compareAndSet(false, true)) {
+            FrameClock.getInstance().postFrameAction(mApplyTextRunnable);
+        }
+    }
+
+    /**
+     * Keep the width of the labels from shrinking. Each label reserves the widest width it has
+     * needed so far, so once it has been reserved, a text update that fits only redraws the
+     * label instead of laying out the whole HUD again. Useful for labels updated with progress,
+     * e.g. "Uploading 42%". Default is false.
+     * @return Current HUD
+     */
+    public KProgressHUD setFixedLabelWidth(boolean fixedLabelWidth) {
+        mFixedLabelWidth = fixedLabelWidth;
+        mHudViews.applyFixedLabelWidth();
         return this;
     }
 
@@ -221,16 +688,160 @@ public class KProgressHUD {
      * @return Current HUD
      */
     public KProgressHUD setMaxProgress(int maxProgress) {
+        return setMaxProgress((long) maxProgress);
+    }
+
+    /**
+     * 64-bit max value, e.g. a byte count. Custom views that only implement Determinate
+     * receive values scaled down to fit an int.
+     * @return Current HUD
+     */
+    public KProgressHUD setMaxProgress(long maxProgress) {
         mMaxProgress = maxProgress;
         return this;
     }
 
+    /**
+     * Fill the details label with the current progress rate and the estimated time left,
+     * e.g. "1.5 MB/s &middot; 0:42". The rate is measured over the last few seconds.
+     * While enabled it replaces the text set with {@link #setDetailsLabel(String)}, which is
+     * shown again from each show until the rate of the new task is known.
+     * @param unit How progress is counted, null to disable (default)
+     * @return Current HUD
+     */
+    public KProgressHUD setRateEstimation(RateUnit unit) {
+        mRateUnit = unit;
+        return this;
+    }
+
+    /**
+     * Animate the built-in determinate styles from the displayed progress to each new value,
+     * so that coarse progress updates are rendered as a smooth motion. Default is 0 (no animation).
+     * @param smoothingMs Approximate time, in milliseconds, to catch up with a new value
+     * @return Current HUD
+     */
+    public KProgressHUD setProgressSmoothing(int smoothingMs) {
+        mProgressSmoothingMs = smoothingMs;
+        mHudViews.applyIndicatorSettings();
+        return this;
+    }
+
+    /**
+     * Limit how fast the built-in determinate styles move towards a new progress value.
+     * Can be combined with {@link #setProgressSmoothing(int)}. Default is 0 (no limit).
+     * @param progressPerSecond Max progress units per second
+     * @return Current HUD
+     */
+    public KProgressHUD setProgressVelocityLimit(float progressPerSecond) {
+        mProgressVelocityLimit = progressPerSecond;
+        mHudViews.applyIndicatorSettings();
+        return this;
+    }
+
     /**
      * Set current progress. Only have effect when use with a determinate style, or a custom
      * view which implements Determinate interface.
+     * Can be called from any thread. Updates are coalesced, only the latest value is applied
+     * on the main thread, at most once per frame.
      */
     public void setProgress(int progress) {
-        mProgressDialog.setProgress(progress);
+        setProgress((long) progress);
+    }
+
+    /**
+     * 64-bit version of {@link #setProgress(int)}, e.g. for a byte count.
+     */
+    public void setProgress(long progress) {
+        mProgressReceived.incrementAndGet();
+        mPendingProgress.set(progress);
+        HudSurfaceRenderer renderer = mHudViews.mRenderer;
+        if (renderer != null) {
+            // Drawn from here, the main thread only has auto dismiss and rate left to do
+            renderer.setProgress(progress);
+        }
+        if (mProgressApplyScheduled.compareAndSet(false, true)) {
+            FrameClock.getInstance().postFrameAction(mApplyProgressRunnable);
+        }
+    }
+
+    /**
+     * Apply a progress value right away. Must be called on the main thread, by callers that
+     * already coalesce their updates per frame.
+     */
+    void applyProgress(long progress) {
+        mProgressReceived.incrementAndGet();
+        mPendingProgress.set(progress);
+        if (mHudViews.mRenderer != null) {
+            mHudViews.mRenderer.setProgress(progress);
+        }
+        mHudViews.setProgress(progress);
+    }
+
+    /**
+     * Start a set of changes to apply together, e.g. both labels and the progress of one
+     * update. The editor can be filled on any thread and reused after each apply.
+     * @return A new editor
+     */
+    public Editor edit() {
+        return new Editor(this);
+    }
+
+    void applyEdit(Editor editor) {
+        synchronized (mPendingEdit) {
+            mPendingEdit.takeFrom(editor);
+            if (Looper.myLooper() != Looper.getMainLooper()) {
+                if (!mEditScheduled) {
+                    mEditScheduled = true;
+                    FrameClock.getInstance().postFrameAction(mCommitEditRunnable);
+                }
+                return;
+            }
+        }
+        // On the main thread, along with any edit still waiting, so that none is applied late
+        commitPendingEdit();
+    }
+
+    private void commitPendingEdit() {
+        Editor edit = mCommittingEdit;
+        synchronized (mPendingEdit) {
+            mEditScheduled = false;
+            edit.takeFrom(mPendingEdit);
+        }
+        if (edit.isEmpty()) {
+            return;
+        }
+        // All views are updated within this one message, so their layout requests and
+        // invalidations are served by a single traversal
+        if (edit.has(Editor.SIZE)) {
+            mHudViews.setSize(edit.mWidth, edit.mHeight);
+        }
+        if (edit.has(Editor.LABEL | Editor.LABEL_COLOR)) {
+            CharSequence label = mHudViews.mHasLabel ? mHudViews.mLabel : null;
+            if (edit.has(Editor.LABEL)) {
+                dropPendingLabel();
+                label = edit.mHasLabel ? edit.mLabel : null;
+            }
+            mHudViews.setLabel(label, edit.has(Editor.LABEL_COLOR)
+                    ? edit.mLabelColor : mHudViews.mLabelColor);
+        }
+        if (edit.has(Editor.DETAILS_LABEL | Editor.DETAILS_LABEL_COLOR)) {
+            CharSequence detailsLabel = mHudViews.mHasDetailsLabel ? mHudViews.mDetailsLabel : null;
+            if (edit.has(Editor.DETAILS_LABEL)) {
+                dropPendingDetailsLabel();
+                detailsLabel = edit.mHasDetailsLabel ? edit.mDetailsLabel : null;
+            }
+            mHudViews.setDetailsLabel(detailsLabel, edit.has(Editor.DETAILS_LABEL_COLOR)
+                    ? edit.mDetailsLabelColor : mHudViews.mDetailColor);
+        }
+        if (edit.has(Editor.MAX_PROGRESS)) {
+            mMaxProgress = edit.mMaxProgress;
+            mHudViews.applyMaxProgress();
+        }
+        // Last, it may dismiss the HUD
+        if (edit.has(Editor.PROGRESS)) {
+            applyProgress(edit.mProgress);
+        }
+        edit.clear();
     }
 
     /**
@@ -240,7 +851,7 @@ public class KProgressHUD {
      */
     public KProgressHUD setCustomView(View view) {
         if (view != null) {
-            mProgressDialog.setView(view);
+            mHudViews.setView(view);
         } else {
             throw new RuntimeException("Custom view must not be null!");
         }
@@ -257,8 +868,11 @@ public class KProgressHUD {
      * @return Current HUD
      */
     public KProgressHUD setCancellable(boolean isCancellable) {
-        mProgressDialog.setCancelable(isCancellable);
-        mProgressDialog.setOnCancelListener(null);
+        mCancellable = isCancellable;
+        mCancelListener = null;
+        if (mPresenter != null) {
+            mPresenter.setCancelable(isCancellable);
+        }
         return this;
     }
 
@@ -272,8 +886,11 @@ public class KProgressHUD {
      * @return Current HUD
      */
     public KProgressHUD setCancellable(DialogInterface.OnCancelListener listener) {
-        mProgressDialog.setCancelable(null != listener);
-        mProgressDialog.setOnCancelListener(listener);
+        mCancellable = null != listener;
+        mCancelListener = listener;
+        if (mPresenter != null) {
+            mPresenter.setCancelable(null != listener);
+        }
         return this;
     }
 
@@ -296,60 +913,444 @@ public class KProgressHUD {
      * @return Current HUD
      */
     public KProgressHUD setGraceTime(int graceTimeMs) {
-        mGraceTimeMs = graceTimeMs;
+        mTimers.setGraceTime(graceTimeMs);
         return this;
     }
 
-    public KProgressHUD show() {
-        if (!isShowing()) {
-            mFinished = false;
-            if (mGraceTimeMs == 0) {
-                mProgressDialog.show();
-            } else {
-                mGraceTimer = new Handler();
-                mGraceTimer.postDelayed(new Runnable() {
-                    @Override
-                    public void run() {
-                        if (mProgressDialog != null && !mFinished) {
-                            mProgressDialog.show();
-                        }
-                    }
-                }, mGraceTimeMs);
-            }
+    /**
+     * Tie the HUD to the lifecycle of its Activity. When the Activity is destroyed, the HUD
+     * cancels its timers, dismisses itself while the window is still valid, stops following
+     * bound work and drops every reference to the Activity and its views, so a HUD kept by a
+     * longer lived object no longer holds the Activity. Later calls to show have no effect.
+     * Even without this option, a HUD is never shown in a finishing Activity.
+     * @param lifecycleAware Default is false. True needs an Activity context.
+     * @return Current HUD
+     */
+    public KProgressHUD setLifecycleAware(boolean lifecycleAware) {
+        if (lifecycleAware == mLifecycleAware || mHostReleased) {
+            return this;
+        }
+        Activity activity = findActivity(mContext);
+        if (activity == null) {
+            throw new RuntimeException("Lifecycle aware HUD needs an Activity context!");
+        }
+        mLifecycleAware = lifecycleAware;
+        if (lifecycleAware) {
+            HudLifecycle.observe(activity, mLifecycleObserver);
+        } else {
+            HudLifecycle.unobserve(activity, mLifecycleObserver);
         }
         return this;
     }
 
-    public boolean isShowing() {
-        return mProgressDialog != null && mProgressDialog.isShowing();
-    }
+    private void releaseHost() {
+        // The window is still attached while onDestroy is dispatched
+        if (mPresenter != null && mPresenter.isShowing()) {
+            mPresenter.dismiss();
+        }
+        dismissNow();
+        if (mBinding != null) {
+            mBinding.stop();
+            mBinding = null;
+        }
+        mPresenter = null;
+        mPrewarmed.set(null);
+        mHudViews.release();
+        mContext = mContext.getApplicationContext();
+        mHostReleased = true;
+    }
+
+    /**
+     * Minimum time (in milliseconds) that the HUD stays on screen once shown. A dismiss that
+     * comes earlier is delayed until that time, and a show meanwhile keeps the HUD up, which
+     * avoids a HUD that flashes for a single frame.
+     * Defaults to 0 (no minimum).
+     * @param minShowTimeMs Minimum show time in milliseconds
+     * @return Current HUD
+     */
+    public KProgressHUD setMinShowTime(int minShowTimeMs) {
+        mTimers.setMinShowTime(minShowTimeMs);
+        return this;
+    }
+
+    /**
+     * Specify what runs the grace, min show time and delayed dismiss timers of this HUD.
+     * Must not be changed while a timer is pending.
+     * @param scheduler Default is the one set with {@link #setDefaultScheduler(HudScheduler)}
+     * @return Current HUD
+     */
+    public KProgressHUD setScheduler(HudScheduler scheduler) {
+        mTimers.setScheduler(scheduler);
+        return this;
+    }
+
+    /**
+     * Specify the scheduler of HUDs created from now on, e.g. one with a virtual clock in tests.
+     * Must be called on the main thread.
+     * @param scheduler null to go back to the main thread Handler
+     */
+    public static void setDefaultScheduler(HudScheduler scheduler) {
+        sDefaultScheduler = scheduler;
+    }
+
+    private static HudScheduler getDefaultScheduler() {
+        return sDefaultScheduler != null ? sDefaultScheduler : MainThreadScheduler.getInstance();
+    }
+
+    /**
+     * Receive the lifecycle events and progress counts of this HUD, on top of the default
+     * listener.
+     * @param listener null to remove it
+     * @return Current HUD
+     */
+    public KProgressHUD setMetricsListener(HudMetricsListener listener) {
+        mMetricsListener = listener;
+        return this;
+    }
+
+    /**
+     * Receive the lifecycle events and progress counts of every HUD, e.g. to report them
+     * to an analytics service. Must be called on the main thread.
+     * @param listener null to remove it
+     */
+    public static void setDefaultMetricsListener(HudMetricsListener listener) {
+        sMetricsListener = listener;
+    }
+
+    private void reportEvent(HudMetricsListener.Event event) {
+        if (sMetricsListener == null && mMetricsListener == null) {
+            return;
+        }
+        long timeNanos = System.nanoTime();
+        if (sMetricsListener != null) {
+            sMetricsListener.onEvent(this, event, timeNanos);
+        }
+        if (mMetricsListener != null) {
+            mMetricsListener.onEvent(this, event, timeNanos);
+        }
+    }
+
+    private void reportProgressUpdates() {
+        long received = mProgressReceived.getAndSet(0);
+        long applied = mProgressApplied;
+        mProgressApplied = 0;
+        if (sMetricsListener != null) {
+            sMetricsListener.onProgressUpdates(this, received, applied);
+        }
+        if (mMetricsListener != null) {
+            mMetricsListener.onProgressUpdates(this, received, applied);
+        }
+    }
+
+    /**
+     * Build the HUD layout, the view of the current style and the Paints of the theme on a
+     * background thread ahead of time, so that the first show only has to attach views that
+     * are already built. Call it early, e.g. when the screen is created, for HUDs that will be
+     * shown right before heavy work on the main thread, and after the rendering, style and
+     * theme are set. Views prepared for settings that changed since are dropped.
+     * Has no effect once the HUD has been shown.
+     * @return Current HUD
+     */
+    public KProgressHUD prewarm() {
+        if (mPresenter == null) {
+            final Context context = mContext;
+            final boolean flatRendering = mFlatRendering;
+            final Style style = mHudViews.mStyle;
+            final HudTheme theme = mTheme;
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // Kept by the theme, the main thread only takes the ready Paints
+                    theme.getPaints(context);
+                    View layout = createLayout(context, flatRendering);
+                    View styleView = style != null ? createStyleView(context, style, theme) : null;
+                    mPrewarmed.set(new PrewarmedViews(flatRendering, layout, style, theme, styleView));
+                }
+            });
+        }
+        return this;
+    }
+
+    private static View createLayout(Context context, boolean flatRendering) {
+        if (flatRendering) {
+            return new FlatHudLayout(context);
+        }
+        // A throwaway parent gives the root the layout params declared in the XML
+        return LayoutInflater.from(context)
+                .inflate(R.layout.kprogresshud_hud, new FrameLayout(context), false);
+    }
+
+    private static View createStyleView(Context context, Style style, HudTheme theme) {
+        switch (style) {
+            case SPIN_INDETERMINATE:
+                return new SpinView(context, theme);
+            case PIE_DETERMINATE:
+                return new PieView(context, theme);
+            case ANNULAR_DETERMINATE:
+                return new AnnularView(context, theme);
+            case BAR_DETERMINATE:
+                return new BarView(context, theme);
+        }
+        return null;
+    }
+
+    private View obtainLayout(Context context) {
+        PrewarmedViews prewarmed = mPrewarmed.getAndSet(null);
+        if (prewarmed == null || prewarmed.flatRendering != mFlatRendering) {
+            return createLayout(context, mFlatRendering);
+        }
+        if (prewarmed.styleView != null && prewarmed.theme == mTheme) {
+            mHudViews.adoptStyleView(prewarmed.style, prewarmed.styleView);
+        }
+        return prewarmed.layout;
+    }
+
+    /**
+     * Views built by prewarm(), with the settings they were built for.
+     */
+    private static final class PrewarmedViews {
+        final boolean flatRendering;
+        final View layout;
+        final Style style;
+        final HudTheme theme;
+        final View styleView;
+
+        PrewarmedViews(boolean flatRendering, View layout, Style style, HudTheme theme,
+                       View styleView) {
+            this.flatRendering = flatRendering;
+            this.layout = layout;
+            this.style = style;
+            this.theme = theme;
+            this.styleView = styleView;
+        }
+    }
+
+    public KProgressHUD show() {
+        mRemovedCallback = null;
+        mTimers.show();
+        return this;
+    }
+
+    /**
+     * @return false if the HUD cannot be shown
+     */
+    private boolean present() {
+        Activity activity = findActivity(mContext);
+        if (mHostReleased || (activity != null && HudLifecycle.isGone(activity))) {
+            // Adding a window now would fail with a bad token
+            return false;
+        }
+        obtainPresenter().show();
+        return true;
+    }
+
+    /**
+     * Show the HUD until a Future is done. A plain Future has no completion callback, so it is
+     * checked once per frame while bound. If the HUD is cancelled, the Future is cancelled too.
+     * Binding new work replaces the previous one, which then no longer dismisses the HUD.
+     * @return Current HUD
+     */
+    public KProgressHUD bind(Future<?> future) {
+        startBinding(new TaskBinding.FutureBinding(this, future));
+        return this;
+    }
+
+    /**
+     * Show the HUD until a CompletableFuture completes, normally or not.
+     * If the HUD is cancelled, the CompletableFuture is cancelled too.
+     * @return Current HUD
+     */
+    @TargetApi(Build.VERSION_CODES.N)
+    public KProgressHUD bind(CompletableFuture<?> future) {
+        startBinding(new TaskBinding.CompletableFutureBinding(this, future));
+        return this;
+    }
+
+    /**
+     * Run work on an executor and show the HUD until it ends. The work reports progress from
+     * its own thread, the HUD applies it at most once per frame along with the dismissal.
+     * If the HUD is cancelled, the work is cancelled with an interrupt.
+     * @return The Future of the work, e.g. to cancel it or to get its exception
+     * @throws java.util.concurrent.RejectedExecutionException If the executor does not take
+     * the work, the HUD is then dismissed
+     */
+    public Future<?> bind(Executor executor, ProgressTask task) {
+        ProgressReporter reporter = new ProgressReporter() {
+            @Override
+            public void setProgress(long progress) {
+                KProgressHUD.this.setProgress(progress);
+            }
+        };
+        TaskBinding.ExecutorBinding binding =
+                new TaskBinding.ExecutorBinding(this, executor, task, reporter);
+        startBinding(binding);
+        return binding.getFuture();
+    }
+
+    /**
+     * Show the HUD and get a subscriber that drives it from a stream of progress values,
+     * e.g. a Flow or RxJava publisher bridged to it. The HUD is dismissed when the stream
+     * completes or fails, and cancelling the HUD cancels the subscription.
+     * @return A new subscriber, to subscribe once to a publisher
+     */
+    public ProgressSubscriber subscribe() {
+        ProgressSubscriber subscriber = new ProgressSubscriber(this);
+        startBinding(subscriber.getBinding());
+        return subscriber;
+    }
+
+    private void startBinding(TaskBinding binding) {
+        if (mBinding != null) {
+            mBinding.stop();
+        }
+        mBinding = binding;
+        show();
+        binding.start();
+    }
+
+    void onBindingDone(TaskBinding binding) {
+        if (mBinding == binding) {
+            mBinding = null;
+            dismiss();
+        }
+    }
+
+    public boolean isShowing() {
+        return mPresenter != null && mPresenter.isShowing();
+    }
+
+    /**
+     * @return Whether the HUD is showing, or will be once its grace time runs out, and is not
+     * waiting for a dismiss
+     */
+    boolean isShowRequested() {
+        return mTimers.isShowRequested();
+    }
 
     public void dismiss() {
-        mFinished = true;
-        if (mContext != null && mProgressDialog != null && mProgressDialog.isShowing()) {
-            mProgressDialog.dismiss();
+        mTimers.dismiss();
+    }
+
+    /**
+     * Dismiss like {@link #dismiss()}, min show time included, and run an action once the
+     * HUD is off screen. The action is dropped if the HUD is shown again before.
+     */
+    void dismiss(Runnable onRemoved) {
+        mRemovedCallback = onRemoved;
+        dismiss();
+    }
+
+    /**
+     * Dismiss the HUD after a delay, e.g. to let a final label be read.
+     * A show in the meantime cancels the dismiss.
+     * @param delayMs Delay in milliseconds, the min show time still applies
+     */
+    public void dismiss(long delayMs) {
+        if (delayMs <= 0) {
+            dismiss();
+            return;
         }
-        if (mGraceTimer != null) {
-            mGraceTimer.removeCallbacksAndMessages(null);
-            mGraceTimer = null;
+        mTimers.dismiss(delayMs);
+    }
+
+    private void dismissNow() {
+        mTimers.dismissNow();
+    }
+
+    private void removeWindow() {
+        if (mPresenter != null && mPresenter.isShowing()) {
+            Activity activity = findActivity(mContext);
+            // Once destroyed, the window is already gone and a dialog cannot be dismissed
+            if (activity == null || !HudLifecycle.isDestroyed(activity)) {
+                mPresenter.dismiss();
+            }
         }
     }
 
-    private class ProgressDialog extends Dialog {
+    private Presenter obtainPresenter() {
+        if (mPresenter == null || mPresenterMode != mMode
+                || mPresenterFlatRendering != mFlatRendering) {
+            if (mMode == Mode.OVERLAY || mMode == Mode.SURFACE) {
+                Activity activity = findActivity(mContext);
+                if (activity == null) {
+                    throw new RuntimeException("Overlay mode needs an Activity context!");
+                }
+                mPresenter = mMode == Mode.SURFACE
+                        ? new HudSurface(activity) : new HudOverlay(activity);
+            } else {
+                mPresenter = new ProgressDialog(mContext);
+            }
+            mPresenterMode = mMode;
+            mPresenterFlatRendering = mFlatRendering;
+            mPresenter.setCancelable(mCancellable);
+            mPresenter.setOnCancelListener(mCancelDispatcher);
+        }
+        return mPresenter;
+    }
+
+    private static Activity findActivity(Context context) {
+        while (context instanceof ContextWrapper) {
+            if (context instanceof Activity) {
+                return (Activity) context;
+            }
+            context = ((ContextWrapper) context).getBaseContext();
+        }
+        return null;
+    }
+
+    /**
+     * Reports when the root of the current presenter is attached, first drawn and removed.
+     */
+    private class WindowTracker implements View.OnAttachStateChangeListener,
+            ViewTreeObserver.OnPreDrawListener {
+
+        // Tree of the attached root, until its first frame
+        private ViewTreeObserver mObserver;
+
+        @Override
+        public void onViewAttachedToWindow(View v) {
+            mObserver = v.getViewTreeObserver();
+            mObserver.addOnPreDrawListener(this);
+            reportEvent(HudMetricsListener.Event.WINDOW_ATTACHED);
+        }
+
+        @Override
+        public boolean onPreDraw() {
+            // Only the first frame is reported, nothing is left to run on the next ones
+            removePreDrawListener();
+            reportEvent(HudMetricsListener.Event.FIRST_FRAME);
+            return true;
+        }
+
+        @Override
+        public void onViewDetachedFromWindow(View v) {
+            removePreDrawListener();
+            reportEvent(HudMetricsListener.Event.WINDOW_REMOVED);
+            reportProgressUpdates();
+        }
+
+        private void removePreDrawListener() {
+            if (mObserver != null) {
+                if (mObserver.isAlive()) {
+                    mObserver.removeOnPreDrawListener(this);
+                }
+                mObserver = null;
+            }
+        }
+    }
+
+    /**
+     * Puts the HUD views on screen. Dialog already has the right shape for it.
+     */
+    private interface Presenter extends DialogInterface {
+        void show();
+        boolean isShowing();
+        void setCancelable(boolean flag);
+        void setOnCancelListener(OnCancelListener listener);
+    }
+
+    private class ProgressDialog extends Dialog implements Presenter {
 
-        private Determinate mDeterminateView;
-        private Indeterminate mIndeterminateView;
-        private View mView;
-		private TextView mLabelText;
-        private TextView mDetailsText;
-        private String mLabel;
-        private String mDetailsLabel;
-        private FrameLayout mCustomViewContainer;
-        private BackgroundLayout mBackgroundLayout;
-        private int mWidth, mHeight;
-        private int mLabelColor = Color.WHITE;
-        private int mDetailColor = Color.WHITE;
-		
         public ProgressDialog(Context context) {
             super(context);
         }
@@ -358,142 +1359,808 @@ public class KProgressHUD {
         protected void onCreate(Bundle savedInstanceState) {
             super.onCreate(savedInstanceState);
             requestWindowFeature(Window.FEATURE_NO_TITLE);
-            setContentView(R.layout.kprogresshud_hud);
+            View background = obtainLayout(getContext());
+            setContentView(background, background.getLayoutParams());
+            background.addOnAttachStateChangeListener(mWindowTracker);
 
             Window window = getWindow();
             window.setBackgroundDrawable(new ColorDrawable(0));
             window.addFlags(WindowManager.LayoutParams.FLAG_DIM_BEHIND);
             WindowManager.LayoutParams layoutParams = window.getAttributes();
-            layoutParams.dimAmount = mDimAmount;
             layoutParams.gravity = Gravity.CENTER;
             window.setAttributes(layoutParams);
 
             setCanceledOnTouchOutside(false);
 
-            initViews();
+            mHudViews.bind(background);
+        }
+
+        @Override
+        protected void onStart() {
+            super.onStart();
+            // Applied on every show, a recycled dialog is only created once
+            Window window = getWindow();
+            WindowManager.LayoutParams layoutParams = window.getAttributes();
+            layoutParams.dimAmount = mDimAmount;
+            window.setAttributes(layoutParams);
+
+            mHudViews.applyStyle();
+        }
+    }
+
+    private class HudOverlay implements Presenter, View.OnKeyListener {
+
+        private final Activity mActivity;
+        private FrameLayout mOverlay;
+        private boolean mCancelable;
+        private OnCancelListener mOnCancelListener;
+
+        public HudOverlay(Activity activity) {
+            mActivity = activity;
+        }
+
+        private void create() {
+            mOverlay = new FrameLayout(mActivity);
+            // Swallow touches and key events meant for the content below, like a modal dialog
+            mOverlay.setClickable(true);
+            mOverlay.setFocusable(true);
+            mOverlay.setFocusableInTouchMode(true);
+            mOverlay.setOnKeyListener(this);
+            mOverlay.addOnAttachStateChangeListener(mWindowTracker);
+            addContent(mOverlay);
+        }
+
+        /**
+         * Put the HUD into the overlay, once.
+         */
+        void addContent(FrameLayout overlay) {
+            View background = obtainLayout(mActivity);
+            FrameLayout.LayoutParams params = (FrameLayout.LayoutParams) background.getLayoutParams();
+            params.gravity = Gravity.CENTER;
+            overlay.addView(background, params);
+
+            mHudViews.bind(background);
+        }
+
+        /**
+         * Apply the HUD settings, on every show.
+         */
+        void applyStyle(FrameLayout overlay) {
+            int dim = Math.round(mDimAmount * 255);
+            overlay.setBackgroundColor(Color.argb(dim, 0, 0, 0));
+            mHudViews.applyStyle();
+        }
+
+        @Override
+        public void show() {
+            if (isShowing()) {
+                return;
+            }
+            if (mOverlay == null) {
+                create();
+            }
+            applyStyle(mOverlay);
+
+            ViewGroup decor = (ViewGroup) mActivity.getWindow().getDecorView();
+            int matchParam = ViewGroup.LayoutParams.MATCH_PARENT;
+            decor.addView(mOverlay, new ViewGroup.LayoutParams(matchParam, matchParam));
+            mOverlay.requestFocus();
+        }
+
+        @Override
+        public boolean isShowing() {
+            return mOverlay != null && mOverlay.getParent() != null;
+        }
+
+        @Override
+        public void dismiss() {
+            if (isShowing()) {
+                ((ViewGroup) mOverlay.getParent()).removeView(mOverlay);
+            }
         }
 
-        private void initViews() {
-            mBackgroundLayout = (BackgroundLayout) findViewById(R.id.background);
-            mBackgroundLayout.setBaseColor(mWindowColor);
-            mBackgroundLayout.setCornerRadius(mCornerRadius);
+        @Override
+        public void cancel() {
+            if (mOnCancelListener != null) {
+                mOnCancelListener.onCancel(this);
+            }
+            dismiss();
+        }
+
+        @Override
+        public void setCancelable(boolean flag) {
+            mCancelable = flag;
+        }
+
+        @Override
+        public void setOnCancelListener(OnCancelListener listener) {
+            mOnCancelListener = listener;
+        }
+
+        @Override
+        public boolean onKey(View v, int keyCode, KeyEvent event) {
+            if (keyCode != KeyEvent.KEYCODE_BACK) {
+                return false;
+            }
+            if (mCancelable && event.getAction() == KeyEvent.ACTION_UP && !event.isCanceled()) {
+                cancel();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Overlay holding a SurfaceView, drawn by a HudSurfaceRenderer instead of HUD views.
+     * The surface is put on top of the window, the dim is drawn into it along with the HUD.
+     */
+    private class HudSurface extends HudOverlay {
+
+        private final HudSurfaceRenderer mRenderer;
+
+        public HudSurface(Activity activity) {
+            super(activity);
+            mRenderer = new HudSurfaceRenderer(activity);
+        }
+
+        @Override
+        void addContent(FrameLayout overlay) {
+            SurfaceView surfaceView = new SurfaceView(overlay.getContext());
+            surfaceView.setZOrderOnTop(true);
+            surfaceView.getHolder().setFormat(PixelFormat.TRANSLUCENT);
+            surfaceView.getHolder().addCallback(mRenderer);
+            int matchParam = ViewGroup.LayoutParams.MATCH_PARENT;
+            overlay.addView(surfaceView, new FrameLayout.LayoutParams(matchParam, matchParam));
+
+            mHudViews.bindRenderer(mRenderer);
+        }
+
+        @Override
+        void applyStyle(FrameLayout overlay) {
+            mHudViews.applyStyle();
+        }
+    }
+
+    private class HudViews {
+
+        // Views of the built-in styles, created on first use and kept for later switches
+        private final View[] mStyleViews = new View[Style.values().length];
+        // Style to show once the layout is bound, null for a custom view
+        private Style mStyle;
+        private Determinate mDeterminateView;
+        private LongDeterminate mLongDeterminateView;
+        private Indeterminate mIndeterminateView;
+        private final RateEstimator mRateEstimator = new RateEstimator();
+        private final TextBuffer mRateText = new TextBuffer();
+        private View mView;
+        // Own copies of the label text, callers may keep changing the buffers they passed
+        private final TextBuffer mLabel = new TextBuffer();
+        private final TextBuffer mDetailsLabel = new TextBuffer();
+        private boolean mHasLabel;
+        private boolean mHasDetailsLabel;
+        // Set while the label text was laid out ahead of time
+        private HudText mPrecomputedLabel;
+        private HudText mPrecomputedDetailsLabel;
+        private int mWidth, mHeight;
+        private int mLabelColor = Color.WHITE;
+        private int mDetailColor = Color.WHITE;
+
+        // Bound root, either the inflated layout or the flat renderer
+        private View mRoot;
+        private BackgroundLayout mBackgroundLayout;
+        private FrameLayout mCustomViewContainer;
+        private TextView mLabelText;
+        private TextView mDetailsText;
+        private FlatHudLayout mFlatLayout;
+        // Set instead of a root in SURFACE mode, read from any thread
+        private volatile HudSurfaceRenderer mRenderer;
+
+        /**
+         * Attach to the root of a HUD, an inflated kprogresshud_hud layout or a FlatHudLayout.
+         * The views of a previous root, if any, are no longer updated.
+         */
+        public void bind(View root) {
+            mRenderer = null;
+            mRoot = root;
+            if (root instanceof FlatHudLayout) {
+                mFlatLayout = (FlatHudLayout) root;
+                mBackgroundLayout = null;
+                mCustomViewContainer = null;
+                mLabelText = null;
+                mDetailsText = null;
+            } else {
+                mFlatLayout = null;
+                mBackgroundLayout = (BackgroundLayout) root;
+                mCustomViewContainer = (FrameLayout) root.findViewById(R.id.container);
+                mLabelText = (TextView) root.findViewById(R.id.label);
+                mDetailsText = (TextView) root.findViewById(R.id.details_label);
+            }
             if (mWidth != 0) {
                 updateBackgroundSize();
             }
-
-            mCustomViewContainer = (FrameLayout) findViewById(R.id.container);
+            if (mView == null && mStyle != null) {
+                setIndicator(obtainStyleView(mStyle));
+            }
             addViewToFrame(mView);
+            applyFixedLabelWidth();
+            applyLabel();
+            applyDetailsLabel();
+        }
+
+        /**
+         * Hand everything to a surface renderer, which draws the HUD without views.
+         */
+        public void bindRenderer(HudSurfaceRenderer renderer) {
+            mRoot = null;
+            mFlatLayout = null;
+            mBackgroundLayout = null;
+            mCustomViewContainer = null;
+            mLabelText = null;
+            mDetailsText = null;
+            mRenderer = renderer;
+            renderer.setStyle(mStyle);
+            renderer.setProgress(mPendingProgress.get());
+            renderer.setSize(mWidth, mHeight);
+            applyFixedLabelWidth();
+            applyLabel();
+            applyDetailsLabel();
+        }
 
-            if (mDeterminateView != null) {
-                mDeterminateView.setMax(mMaxProgress);
+        /**
+         * Apply the HUD wide settings, called every time the HUD is shown.
+         */
+        public void applyStyle() {
+            if (mRenderer != null) {
+                mRenderer.setTheme(mTheme);
+                mRenderer.setBackground(mWindowColor, mCornerRadius);
+                mRenderer.setDimAmount(mDimAmount);
+                applyMaxProgress();
+                mRenderer.setAnimationSpeed(mAnimateSpeed);
+                return;
             }
+            if (mFlatLayout != null) {
+                mFlatLayout.setBaseColor(mWindowColor);
+                mFlatLayout.setCornerRadius(mCornerRadius);
+            } else {
+                mBackgroundLayout.setBackgroundStyle(mWindowColor, mCornerRadius, mTheme);
+            }
+
+            applyIndicatorState();
+        }
+
+        private void applyIndicatorState() {
+            applyMaxProgress();
             if (mIndeterminateView != null) {
                 mIndeterminateView.setAnimationSpeed(mAnimateSpeed);
             }
+            if (mView instanceof SpinView) {
+                ((SpinView) mView).setRenderThreadMode(mRenderThreadAnimation);
+            }
+            applyIndicatorSettings();
+        }
 
-            mLabelText = (TextView) findViewById(com.kaopiz.kprogresshud.R.id.label);
-            setLabel(mLabel, mLabelColor);
-            mDetailsText = (TextView) findViewById(com.kaopiz.kprogresshud.R.id.details_label);
-            setDetailsLabel(mDetailsLabel, mDetailColor);
+        public void applyMaxProgress() {
+            if (mRenderer != null) {
+                mRenderer.setMax(mMaxProgress);
+            } else if (mLongDeterminateView != null) {
+                mLongDeterminateView.setMax(mMaxProgress);
+            } else if (mDeterminateView != null) {
+                mDeterminateView.setMax(toIntProgress(mMaxProgress));
+            }
+        }
+
+        public void applyTheme() {
+            for (View view : mStyleViews) {
+                if (view != null) {
+                    ((HudTheme.Themed) view).setTheme(mTheme);
+                }
+            }
+            if (mStyle == null && mView instanceof HudTheme.Themed) {
+                ((HudTheme.Themed) mView).setTheme(mTheme);
+            }
+            if (mRenderer != null) {
+                mRenderer.setTheme(mTheme);
+            }
+        }
+
+        private View obtainStyleView(Style style) {
+            View view = mStyleViews[style.ordinal()];
+            if (view == null) {
+                view = createStyleView(mContext, style, mTheme);
+                mStyleViews[style.ordinal()] = view;
+            }
+            return view;
+        }
+
+        /**
+         * Keep a style view built ahead of time, unless one already exists for the style.
+         */
+        public void adoptStyleView(Style style, View view) {
+            if (mStyleViews[style.ordinal()] == null) {
+                mStyleViews[style.ordinal()] = view;
+            }
+        }
+
+        public void applyIndicatorSettings() {
+            if (mView instanceof ProgressAnimator.Host) {
+                ((ProgressAnimator.Host) mView).getProgressAnimator()
+                        .setSmoothing(mProgressSmoothingMs, mProgressVelocityLimit);
+            }
         }
 
         private void addViewToFrame(View view) {
             if (view == null) return;
-            int wrapParam = ViewGroup.LayoutParams.WRAP_CONTENT;
-            ViewGroup.LayoutParams params = new ViewGroup.LayoutParams(wrapParam, wrapParam);
+            if (mFlatLayout != null) {
+                mFlatLayout.setIndicator(view);
+                return;
+            }
+            if (view.getParent() == mCustomViewContainer
+                    && mCustomViewContainer.getChildCount() == 1) {
+                return;
+            }
+            mCustomViewContainer.removeAllViews();
+            if (view.getParent() != null) {
+                ((ViewGroup) view.getParent()).removeView(view);
+            }
+            // A cached style view keeps its params, switching back to it allocates nothing
+            ViewGroup.LayoutParams params = view.getLayoutParams();
+            if (params == null) {
+                int wrapParam = ViewGroup.LayoutParams.WRAP_CONTENT;
+                params = new ViewGroup.LayoutParams(wrapParam, wrapParam);
+            }
             mCustomViewContainer.addView(view, params);
         }
 
         private void updateBackgroundSize() {
-            ViewGroup.LayoutParams params = mBackgroundLayout.getLayoutParams();
-            params.width = Helper.dpToPixel(mWidth, getContext());
-            params.height = Helper.dpToPixel(mHeight, getContext());
-            mBackgroundLayout.setLayoutParams(params);
+            ViewGroup.LayoutParams params = mRoot.getLayoutParams();
+            params.width = Helper.dpToPixel(mWidth, mContext);
+            params.height = Helper.dpToPixel(mHeight, mContext);
+            mRoot.setLayoutParams(params);
         }
 
-        public void setProgress(int progress) {
-            if (mDeterminateView != null) {
-                mDeterminateView.setProgress(progress);
-                if (mIsAutoDismiss && progress >= mMaxProgress) {
-                    dismiss();
+        /**
+         * Scale a progress value down to fit an int, for views that only implement Determinate.
+         */
+        private int toIntProgress(long progress) {
+            if (mMaxProgress <= Integer.MAX_VALUE) {
+                return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, progress));
+            }
+            long divisor = mMaxProgress / Integer.MAX_VALUE + 1;
+            return (int) (progress / divisor);
+        }
+
+        public void setProgress(long progress) {
+            if (mRenderer != null) {
+                // Already handed to the renderer by the caller, straight from its thread
+                if (mStyle == null || mStyle == Style.SPIN_INDETERMINATE) {
+                    return;
                 }
+            } else if (mLongDeterminateView != null) {
+                mLongDeterminateView.setProgress(progress);
+            } else if (mDeterminateView != null) {
+                mDeterminateView.setProgress(toIntProgress(progress));
+            } else {
+                return;
+            }
+            mProgressApplied++;
+            if (mRateUnit != null) {
+                updateRate(progress);
+            }
+            if (mIsAutoDismiss && progress >= mMaxProgress && !mTimers.isFinished()) {
+                dismiss();
+            }
+        }
+
+        private void updateRate(long progress) {
+            long now = System.nanoTime();
+            mRateEstimator.addSample(now, progress);
+            if (mRateEstimator.formatIfDue(now, progress, mMaxProgress,
+                    mRateUnit == RateUnit.BYTES, mRateText)) {
+                setDetailsText(mRateText);
+            }
+        }
+
+        /**
+         * Forget the previous task, its rate text gives way to the details label until the
+         * first rate of the new one is known.
+         */
+        public void resetRate() {
+            mRateEstimator.reset();
+            if (mRateText.length() > 0) {
+                mRateText.clear();
+                applyDetailsLabel();
+            }
+        }
+
+        private void setDetailsText(TextBuffer text) {
+            if (mRenderer != null) {
+                mRenderer.setDetailsLabel(text, mDetailColor);
+            } else if (mFlatLayout != null) {
+                mFlatLayout.setDetailsLabel(text, mDetailColor);
+            } else if (mDetailsText != null) {
+                applyText(mDetailsText, text, mDetailColor);
+            }
+        }
+
+        /**
+         * Show a built-in style. Its view is only created once the layout is bound, so a style
+         * replaced before the first show costs nothing.
+         */
+        public void setStyle(Style style) {
+            mStyle = style;
+            if (mRenderer != null) {
+                mRenderer.setStyle(style);
+            }
+            if (mRoot != null) {
+                setIndicator(obtainStyleView(style));
+            } else {
+                setIndicator(null);
             }
         }
 
         public void setView(View view) {
-            if (view != null) {
-                if (view instanceof Determinate) {
-                    mDeterminateView = (Determinate) view;
-                }
-                if (view instanceof Indeterminate) {
-                    mIndeterminateView = (Indeterminate) view;
-                }
-                mView = view;
-                if (isShowing()) {
-                    mCustomViewContainer.removeAllViews();
-                    addViewToFrame(view);
-                }
+            mStyle = null;
+            if (mRenderer != null) {
+                mRenderer.setStyle(null);
             }
+            setIndicator(view);
         }
 
-        public void setLabel(String label) {
-            mLabel = label;
-            if (mLabelText != null) {
-                if (label != null) {
-                    mLabelText.setText(label);
-                    mLabelText.setVisibility(View.VISIBLE);
-                } else {
-                    mLabelText.setVisibility(View.GONE);
-                }
+        private void setIndicator(View view) {
+            if (view == mView) {
+                return;
+            }
+            mDeterminateView = view instanceof Determinate ? (Determinate) view : null;
+            mLongDeterminateView = view instanceof LongDeterminate ? (LongDeterminate) view : null;
+            mIndeterminateView = view instanceof Indeterminate ? (Indeterminate) view : null;
+            mView = view;
+            if (view == null) {
+                return;
+            }
+            applyIndicatorState();
+            if (mLongDeterminateView != null) {
+                mLongDeterminateView.setProgress(mPendingProgress.get());
+            } else if (mDeterminateView != null) {
+                mDeterminateView.setProgress(toIntProgress(mPendingProgress.get()));
+            }
+            // The views already exist once the layout has been bound, even if not showing
+            if (mRoot != null) {
+                addViewToFrame(view);
             }
         }
 
-        public void setDetailsLabel(String detailsLabel) {
-            mDetailsLabel = detailsLabel;
-            if (mDetailsText != null) {
-                if (detailsLabel != null) {
-                    mDetailsText.setText(detailsLabel);
-                    mDetailsText.setVisibility(View.VISIBLE);
-                } else {
-                    mDetailsText.setVisibility(View.GONE);
-                }
+        // Label methods are synchronized, in SURFACE mode they may be called from any thread
+        public synchronized void setLabel(CharSequence label, int color) {
+            if (color == mLabelColor && (label == null ? !mHasLabel
+                    : mHasLabel && mLabel.contentEquals(label))) {
+                return;
+            }
+            mHasLabel = label != null;
+            // A new color alone keeps the text laid out ahead of time
+            if (label == null || !mLabel.contentEquals(label)) {
+                mPrecomputedLabel = null;
+            }
+            if (label != null) {
+                mLabel.set(label);
             }
+            mLabelColor = color;
+            applyLabel();
         }
 
-        public void setLabel(String label, int color) {
-            mLabel = label;
+        public synchronized void setPrecomputedLabel(HudText label, int color) {
+            mHasLabel = true;
+            mLabel.set(label.getText());
+            mPrecomputedLabel = label;
             mLabelColor = color;
-            if (mLabelText != null) {
-                if (label != null) {
-                    mLabelText.setText(label);
-                    mLabelText.setTextColor(color);
-                    mLabelText.setVisibility(View.VISIBLE);
+            applyLabel();
+        }
+
+        public synchronized void setLabel(char[] text, int start, int length) {
+            mPrecomputedLabel = null;
+            mHasLabel = true;
+            mLabel.clear().append(text, start, length);
+            applyLabel();
+        }
+
+        public synchronized void setDetailsLabel(CharSequence detailsLabel, int color) {
+            if (color == mDetailColor && (detailsLabel == null ? !mHasDetailsLabel
+                    : mHasDetailsLabel && mDetailsLabel.contentEquals(detailsLabel))) {
+                return;
+            }
+            mHasDetailsLabel = detailsLabel != null;
+            if (detailsLabel == null || !mDetailsLabel.contentEquals(detailsLabel)) {
+                mPrecomputedDetailsLabel = null;
+            }
+            if (detailsLabel != null) {
+                mDetailsLabel.set(detailsLabel);
+            }
+            mDetailColor = color;
+            applyDetailsLabel();
+        }
+
+        public synchronized void setPrecomputedDetailsLabel(HudText detailsLabel, int color) {
+            mHasDetailsLabel = true;
+            mDetailsLabel.set(detailsLabel.getText());
+            mPrecomputedDetailsLabel = detailsLabel;
+            mDetailColor = color;
+            applyDetailsLabel();
+        }
+
+        public synchronized void setDetailsLabel(char[] text, int start, int length) {
+            mPrecomputedDetailsLabel = null;
+            mHasDetailsLabel = true;
+            mDetailsLabel.clear().append(text, start, length);
+            applyDetailsLabel();
+        }
+
+        private synchronized void applyLabel() {
+            if (mRenderer != null) {
+                mRenderer.setLabel(mHasLabel ? mLabel : null, mLabelColor);
+            } else if (mFlatLayout != null && mPrecomputedLabel != null) {
+                mFlatLayout.setLabel(mPrecomputedLabel, mLabelColor);
+            } else if (mFlatLayout != null) {
+                mFlatLayout.setLabel(mHasLabel ? mLabel : null, mLabelColor);
+            } else if (mLabelText != null) {
+                if (mHasLabel) {
+                    applyText(mLabelText, mLabel, mLabelColor);
                 } else {
                     mLabelText.setVisibility(View.GONE);
                 }
             }
         }
 
-        public void setDetailsLabel(String detailsLabel, int color) {
-            mDetailsLabel = detailsLabel;
-            mDetailColor = color;
-            if (mDetailsText != null) {
-                if (detailsLabel != null) {
-                    mDetailsText.setText(detailsLabel);
-                    mDetailsText.setTextColor(color);
-                    mDetailsText.setVisibility(View.VISIBLE);
+        private synchronized void applyDetailsLabel() {
+            if (mRenderer != null) {
+                mRenderer.setDetailsLabel(mHasDetailsLabel ? mDetailsLabel : null, mDetailColor);
+            } else if (mFlatLayout != null && mPrecomputedDetailsLabel != null) {
+                mFlatLayout.setDetailsLabel(mPrecomputedDetailsLabel, mDetailColor);
+            } else if (mFlatLayout != null) {
+                mFlatLayout.setDetailsLabel(mHasDetailsLabel ? mDetailsLabel : null, mDetailColor);
+            } else if (mDetailsText != null) {
+                if (mHasDetailsLabel) {
+                    applyText(mDetailsText, mDetailsLabel, mDetailColor);
                 } else {
                     mDetailsText.setVisibility(View.GONE);
                 }
             }
         }
 
+        private void applyText(TextView textView, TextBuffer text, int color) {
+            if (mFixedLabelWidth) {
+                reserveWidth(textView, text);
+            }
+            // The char[] overload keeps the buffer, setText(CharSequence) would copy it
+            textView.setText(text.getChars(), 0, text.length());
+            if (textView.getCurrentTextColor() != color) {
+                textView.setTextColor(color);
+            }
+            textView.setVisibility(View.VISIBLE);
+        }
+
+        /**
+         * With a fixed width, TextView swaps in the new text without requesting a layout.
+         */
+        private void reserveWidth(TextView textView, TextBuffer text) {
+            int width = (int) Math.ceil(Layout.getDesiredWidth(text, textView.getPaint()))
+                    + textView.getCompoundPaddingLeft() + textView.getCompoundPaddingRight();
+            ViewGroup.LayoutParams params = textView.getLayoutParams();
+            if (params.width < width) {
+                params.width = width;
+                textView.setLayoutParams(params);
+            }
+        }
+
+        public void applyFixedLabelWidth() {
+            if (mRenderer != null) {
+                mRenderer.setFixedTextWidth(mFixedLabelWidth);
+                return;
+            }
+            if (mFlatLayout != null) {
+                mFlatLayout.setFixedTextWidth(mFixedLabelWidth);
+                return;
+            }
+            if (mLabelText == null) {
+                return;
+            }
+            for (TextView textView : new TextView[]{mLabelText, mDetailsText}) {
+                ViewGroup.LayoutParams params = textView.getLayoutParams();
+                if (mFixedLabelWidth) {
+                    textView.setGravity(Gravity.CENTER_HORIZONTAL);
+                } else if (params.width != ViewGroup.LayoutParams.WRAP_CONTENT) {
+                    textView.setGravity(Gravity.TOP | Gravity.START);
+                    params.width = ViewGroup.LayoutParams.WRAP_CONTENT;
+                    textView.setLayoutParams(params);
+                }
+            }
+        }
+
         public void setSize(int width, int height) {
             mWidth = width;
             mHeight = height;
-            if (mBackgroundLayout != null) {
+            if (mRenderer != null) {
+                mRenderer.setSize(width, height);
+            } else if (mRoot != null) {
                 updateBackgroundSize();
             }
         }
+
+        /**
+         * Drop the views, they belong to a destroyed Activity.
+         */
+        public void release() {
+            mRenderer = null;
+            mRoot = null;
+            mBackgroundLayout = null;
+            mCustomViewContainer = null;
+            mLabelText = null;
+            mDetailsText = null;
+            mFlatLayout = null;
+            mView = null;
+            Arrays.fill(mStyleViews, null);
+            mDeterminateView = null;
+            mLongDeterminateView = null;
+            mIndeterminateView = null;
+        }
+
+        public void reset() {
+            resetRate();
+            setLabel(null, Color.WHITE);
+            setDetailsLabel(null, Color.WHITE);
+            mWidth = 0;
+            mHeight = 0;
+            if (mRoot != null) {
+                ViewGroup.LayoutParams params = mRoot.getLayoutParams();
+                params.width = ViewGroup.LayoutParams.WRAP_CONTENT;
+                params.height = ViewGroup.LayoutParams.WRAP_CONTENT;
+                mRoot.setLayoutParams(params);
+            }
+        }
+    }
+
+    /**
+     * Changes to a HUD collected by {@link #edit()} and applied together: both labels, their
+     * colors, the size and the progress of one update cost a single layout and draw pass
+     * instead of one per setter. Only the values that were set are changed.
+     * An editor is filled on one thread at a time, any thread, and is empty again after
+     * {@link #apply()}. From another thread, the changes are applied on the main thread at
+     * the next frame, merged with any other edit applied meanwhile.
+     */
+    public static final class Editor {
+
+        static final int LABEL = 1;
+        static final int LABEL_COLOR = 1 << 1;
+        static final int DETAILS_LABEL = 1 << 2;
+        static final int DETAILS_LABEL_COLOR = 1 << 3;
+        static final int SIZE = 1 << 4;
+        static final int MAX_PROGRESS = 1 << 5;
+        static final int PROGRESS = 1 << 6;
+
+        private final KProgressHUD mHud;
+        private int mChanges;
+        // Own copies of the text, the editor may be filled from buffers that keep changing
+        private final TextBuffer mLabel = new TextBuffer();
+        private boolean mHasLabel;
+        private int mLabelColor;
+        private final TextBuffer mDetailsLabel = new TextBuffer();
+        private boolean mHasDetailsLabel;
+        private int mDetailsLabelColor;
+        private int mWidth, mHeight;
+        private long mMaxProgress;
+        private long mProgress;
+
+        Editor(KProgressHUD hud) {
+            mHud = hud;
+        }
+
+        /**
+         * @param label Copied, null to hide the label
+         */
+        public Editor setLabel(CharSequence label) {
+            mHasLabel = label != null;
+            if (label != null) {
+                mLabel.set(label);
+            }
+            mChanges |= LABEL;
+            return this;
+        }
+
+        public Editor setLabel(CharSequence label, int color) {
+            mLabelColor = color;
+            mChanges |= LABEL_COLOR;
+            return setLabel(label);
+        }
+
+        /**
+         * @param detailsLabel Copied, null to hide the details label
+         */
+        public Editor setDetailsLabel(CharSequence detailsLabel) {
+            mHasDetailsLabel = detailsLabel != null;
+            if (detailsLabel != null) {
+                mDetailsLabel.set(detailsLabel);
+            }
+            mChanges |= DETAILS_LABEL;
+            return this;
+        }
+
+        public Editor setDetailsLabel(CharSequence detailsLabel, int color) {
+            mDetailsLabelColor = color;
+            mChanges |= DETAILS_LABEL_COLOR;
+            return setDetailsLabel(detailsLabel);
+        }
+
+        /**
+         * @param width in dp, 0 to wrap the content
+         * @param height in dp, 0 to wrap the content
+         */
+        public Editor setSize(int width, int height) {
+            mWidth = width;
+            mHeight = height;
+            mChanges |= SIZE;
+            return this;
+        }
+
+        public Editor setMaxProgress(long maxProgress) {
+            mMaxProgress = maxProgress;
+            mChanges |= MAX_PROGRESS;
+            return this;
+        }
+
+        public Editor setProgress(long progress) {
+            mProgress = progress;
+            mChanges |= PROGRESS;
+            return this;
+        }
+
+        /**
+         * Commit the changes, right away on the main thread, otherwise at the next frame.
+         */
+        public void apply() {
+            if (mChanges != 0) {
+                mHud.applyEdit(this);
+            }
+        }
+
+        boolean has(int changes) {
+            return (mChanges & changes) != 0;
+        }
+
+        boolean isEmpty() {
+            return mChanges == 0;
+        }
+
+        void clear() {
+            mChanges = 0;
+        }
+
+        /**
+         * Move the changes of another editor into this one, on top of the ones it holds.
+         */
+        void takeFrom(Editor other) {
+            if (other.has(LABEL)) {
+                mHasLabel = other.mHasLabel;
+                mLabel.set(other.mLabel);
+            }
+            if (other.has(LABEL_COLOR)) {
+                mLabelColor = other.mLabelColor;
+            }
+            if (other.has(DETAILS_LABEL)) {
+                mHasDetailsLabel = other.mHasDetailsLabel;
+                mDetailsLabel.set(other.mDetailsLabel);
+            }
+            if (other.has(DETAILS_LABEL_COLOR)) {
+                mDetailsLabelColor = other.mDetailsLabelColor;
+            }
+            if (other.has(SIZE)) {
+                mWidth = other.mWidth;
+                mHeight = other.mHeight;
+            }
+            if (other.has(MAX_PROGRESS)) {
+                mMaxProgress = other.mMaxProgress;
+            }
+            if (other.has(PROGRESS)) {
+                mProgress = other.mProgress;
+            }
+            mChanges |= other.mChanges;
+            other.clear();
+        }
     }
 }
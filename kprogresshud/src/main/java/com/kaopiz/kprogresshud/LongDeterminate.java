@@ -0,0 +1,27 @@
+/*
+ *    Copyright 2015 Kaopiz Software Co., Ltd.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.kaopiz.kprogresshud;
+
+/**
+ * 64-bit version of {@link Determinate}, for progress counted in large units such as bytes.
+ * When a custom view implements it, the HUD passes long values through unchanged. Views that
+ * only implement Determinate get values scaled down to fit an int when max exceeds it.
+ */
+public interface LongDeterminate {
+    void setMax(long max);
+    void setProgress(long progress);
+}
@@ -0,0 +1,58 @@
+/*
+ *    Copyright 2015 Kaopiz Software Co., Ltd.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.kaopiz.kprogresshud;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Default {@link HudScheduler}, one Handler on the main Looper shared by every HUD.
+ * Posting a Runnable takes a pooled Message, so scheduling does not allocate.
+ */
+final class MainThreadScheduler implements HudScheduler {
+
+    private static MainThreadScheduler sInstance;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private MainThreadScheduler() {
+    }
+
+    static synchronized MainThreadScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new MainThreadScheduler();
+        }
+        return sInstance;
+    }
+
+    @Override
+    public long now() {
+        return SystemClock.uptimeMillis();
+    }
+
+    @Override
+    public void schedule(Runnable action, long delayMs) {
+        mHandler.removeCallbacks(action);
+        mHandler.postDelayed(action, delayMs);
+    }
+
+    @Override
+    public void cancel(Runnable action) {
+        mHandler.removeCallbacks(action);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ *    Copyright 2015 Kaopiz Software Co., Ltd.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.kaopiz.kprogresshud;
+
+/**
+ * Moves the displayed progress of a determinate view towards its latest value on the
+ * {@link FrameClock}, so that coarse progress updates are rendered as a smooth motion.
+ * Without smoothing and velocity limit, the displayed value follows the target immediately.
+ * Main thread only.
+ */
+class ProgressAnimator implements FrameClock.Callback {
+
+    interface Listener {
+        void onAnimatedProgress(float progress);
+    }
+
+    /**
+     * Implemented by the built-in determinate views, gives the HUD access to their animator.
+     */
+    interface Host {
+        ProgressAnimator getProgressAnimator();
+    }
+
+    // Remaining distance, relative to max, below which the animation ends on the target
+    private static final float SNAP_FRACTION = 0.001f;
+
+    private final Listener mListener;
+    private float mValue;
+    private float mTarget;
+    private float mMax = 100;
+    private int mSmoothingMs;
+    private float mMaxVelocity;
+    private long mLastFrameNanos;
+    private boolean mRunning;
+
+    public ProgressAnimator(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @param smoothingMs Approximate time to cover a jump in progress, 0 for none
+     * @param maxVelocity Max progress units per second, 0 for no limit
+     */
+    public void setSmoothing(int smoothingMs, float maxVelocity) {
+        mSmoothingMs = Math.max(0, smoothingMs);
+        mMaxVelocity = Math.max(0, maxVelocity);
+        if (!isAnimated()) {
+            jumpToTarget();
+        }
+    }
+
+    public void setMax(float max) {
+        mMax = max;
+    }
+
+    public float getValue() {
+        return mValue;
+    }
+
+    public void setTarget(float target) {
+        mTarget = target;
+        if (!isAnimated()) {
+            jumpToTarget();
+        } else if (!mRunning && mValue != target) {
+            mRunning = true;
+            mLastFrameNanos = -1;
+            FrameClock.getInstance().addCallback(this);
+        }
+    }
+
+    private boolean isAnimated() {
+        return mSmoothingMs > 0 || mMaxVelocity > 0;
+    }
+
+    private void jumpToTarget() {
+        stop();
+        if (mValue != mTarget) {
+            mValue = mTarget;
+            mListener.onAnimatedProgress(mValue);
+        }
+    }
+
+    private void stop() {
+        if (mRunning) {
+            mRunning = false;
+            FrameClock.getInstance().removeCallback(this);
+        }
+    }
+
+    @Override
+    public void onFrame(long frameTimeNanos) {
+        if (mLastFrameNanos < 0) {
+            mLastFrameNanos = frameTimeNanos;
+            return;
+        }
+        float seconds = (frameTimeNanos - mLastFrameNanos) / 1e9f;
+        mLastFrameNanos = frameTimeNanos;
+
+        float remaining = mTarget - mValue;
+        float step = remaining;
+        if (mSmoothingMs > 0) {
+            // Exponential ease out, about 98% of the distance is covered after mSmoothingMs
+            step = remaining * (1 - (float) Math.exp(-4 * seconds * 1000 / mSmoothingMs));
+        }
+        if (mMaxVelocity > 0) {
+            float maxStep = mMaxVelocity * seconds;
+            step = Math.max(-maxStep, Math.min(maxStep, step));
+        }
+        mValue += step;
+        if (Math.abs(mTarget - mValue) <= Math.abs(mMax) * SNAP_FRACTION) {
+            mValue = mTarget;
+            stop();
+        }
+        mListener.onAnimatedProgress(mValue);
+    }
+}
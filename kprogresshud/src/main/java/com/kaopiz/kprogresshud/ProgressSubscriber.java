@@ -0,0 +1,172 @@
+/*
+ *    Copyright 2015 Kaopiz Software Co., Ltd.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.kaopiz.kprogresshud;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Consumes a stream of progress values with backpressure, in the shape of a Reactive Streams
+ * subscriber, so it can be bridged one method to one method from Flow, RxJava or any other
+ * Reactive Streams publisher.
+ * Values are requested in bounded batches, and the next batch is only requested once the HUD
+ * has applied the latest value, so a fast publisher is paced by the frame rate. Values that
+ * arrive within the same frame are conflated, only the latest one is shown.
+ * Completion and error dismiss the HUD, cancelling the HUD cancels the subscription. An error
+ * is only reported to the {@link ErrorListener}, without one it is dropped.
+ * {@link #onNext(long)} takes a primitive, a bridge from a publisher of boxed Long values still
+ * pays for the boxing on the publisher side.
+ * Obtained from {@link KProgressHUD#subscribe()}. The signal methods may be called from any
+ * thread, serially as the Reactive Streams rules require.
+ */
+public final class ProgressSubscriber {
+
+    /**
+     * Same contract as a Reactive Streams Subscription.
+     */
+    public interface Subscription {
+        void request(long n);
+        void cancel();
+    }
+
+    /**
+     * Receives the error that ended the stream, on the main thread, along with the dismissal.
+     */
+    public interface ErrorListener {
+        void onError(Throwable error);
+    }
+
+    // Values requested at a time, the next batch is requested when half of it is left
+    private static final int BATCH_SIZE = 32;
+
+    private final KProgressHUD mHud;
+    private final Binding mBinding;
+    private volatile Subscription mSubscription;
+    private final AtomicBoolean mCancelled = new AtomicBoolean();
+    private volatile ErrorListener mErrorListener;
+
+    private final AtomicLong mLatest = new AtomicLong();
+    // Values requested but not received yet
+    private final AtomicLong mOutstanding = new AtomicLong();
+    private final AtomicBoolean mApplyScheduled = new AtomicBoolean();
+    private final Runnable mApplyRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mApplyScheduled.set(false);
+            mHud.applyProgress(mLatest.get());
+            requestMore();
+        }
+    };
+
+    ProgressSubscriber(KProgressHUD hud) {
+        mHud = hud;
+        mBinding = new Binding(hud);
+    }
+
+    TaskBinding getBinding() {
+        return mBinding;
+    }
+
+    /**
+     * @param listener Called if the stream fails, null to drop errors (default)
+     * @return This subscriber
+     */
+    public ProgressSubscriber setErrorListener(ErrorListener listener) {
+        mErrorListener = listener;
+        return this;
+    }
+
+    public void onSubscribe(Subscription subscription) {
+        mSubscription = subscription;
+        if (mCancelled.get()) {
+            subscription.cancel();
+            return;
+        }
+        mOutstanding.set(BATCH_SIZE);
+        subscription.request(BATCH_SIZE);
+    }
+
+    public void onNext(long progress) {
+        mLatest.set(progress);
+        mOutstanding.decrementAndGet();
+        if (mApplyScheduled.compareAndSet(false, true)) {
+            FrameClock.getInstance().postFrameAction(mApplyRunnable);
+        }
+    }
+
+    public void onError(final Throwable error) {
+        final ErrorListener listener = mErrorListener;
+        if (listener != null) {
+            // Posted first, so it runs in the same frame and before the dismissal
+            FrameClock.getInstance().postFrameAction(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onError(error);
+                }
+            });
+        }
+        mBinding.onDone();
+    }
+
+    public void onComplete() {
+        mBinding.onDone();
+    }
+
+    private void requestMore() {
+        Subscription subscription = mSubscription;
+        if (subscription == null || mCancelled.get()) {
+            return;
+        }
+        long outstanding = mOutstanding.get();
+        if (outstanding <= BATCH_SIZE / 2) {
+            long n = BATCH_SIZE - outstanding;
+            mOutstanding.addAndGet(n);
+            subscription.request(n);
+        }
+    }
+
+    private void cancel() {
+        if (mCancelled.compareAndSet(false, true)) {
+            Subscription subscription = mSubscription;
+            if (subscription != null) {
+                subscription.cancel();
+            }
+        }
+    }
+
+    private class Binding extends TaskBinding {
+
+        Binding(KProgressHUD hud) {
+            super(hud);
+        }
+
+        @Override
+        void start() {
+            // The publisher starts the stream by calling onSubscribe
+        }
+
+        @Override
+        void cancel() {
+            ProgressSubscriber.this.cancel();
+        }
+
+        @Override
+        void stop() {
+            ProgressSubscriber.this.cancel();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ *    Copyright 2015 Kaopiz Software Co., Ltd.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.kaopiz.kprogresshud;
+
+/**
+ * Estimates the progress rate over a rolling time window, and formats it with the time left,
+ * e.g. "1.5 MB/s &middot; 0:42". Samples are kept in fixed arrays, nothing is allocated
+ * per update.
+ * Main thread only.
+ */
+class RateEstimator {
+
+    private static final int CAPACITY = 64;
+    private static final long WINDOW_NANOS = 3000000000L;
+    private static final long SAMPLE_INTERVAL_NANOS = WINDOW_NANOS / CAPACITY;
+    // The text is refreshed at most this often, faster changes are unreadable
+    private static final long TEXT_INTERVAL_NANOS = 500000000L;
+
+    private static final String[] BYTE_UNITS = {"B", "KB", "MB", "GB", "TB"};
+
+    private final long[] mTimes = new long[CAPACITY];
+    private final long[] mValues = new long[CAPACITY];
+    private int mFirst;
+    private int mCount;
+    private long mLastTextTime;
+
+    public void reset() {
+        mFirst = 0;
+        mCount = 0;
+        mLastTextTime = 0;
+    }
+
+    public void addSample(long timeNanos, long value) {
+        if (mCount > 0) {
+            int last = (mFirst + mCount - 1) % CAPACITY;
+            if (value < mValues[last]) {
+                // Progress went back, a new task started
+                reset();
+            } else if (timeNanos - mTimes[last] < SAMPLE_INTERVAL_NANOS) {
+                mValues[last] = value;
+                return;
+            }
+        }
+        if (mCount == CAPACITY) {
+            mFirst = (mFirst + 1) % CAPACITY;
+            mCount--;
+        }
+        int index = (mFirst + mCount) % CAPACITY;
+        mTimes[index] = timeNanos;
+        mValues[index] = value;
+        mCount++;
+        // Keep at least two samples, even if older than the window
+        while (mCount > 2 && timeNanos - mTimes[mFirst] > WINDOW_NANOS) {
+            mFirst = (mFirst + 1) % CAPACITY;
+            mCount--;
+        }
+    }
+
+    /**
+     * @return Progress units per second, or a negative value if not known yet
+     */
+    public double getRate() {
+        if (mCount < 2) {
+            return -1;
+        }
+        int last = (mFirst + mCount - 1) % CAPACITY;
+        long elapsed = mTimes[last] - mTimes[mFirst];
+        if (elapsed <= 0) {
+            return -1;
+        }
+        return (mValues[last] - mValues[mFirst]) * 1e9 / elapsed;
+    }
+
+    /**
+     * Write the rate and the time left into a buffer, if it is time to refresh the text.
+     * @return Whether the buffer was updated
+     */
+    public boolean formatIfDue(long timeNanos, long progress, long max, boolean bytes,
+                               TextBuffer out) {
+        if (mLastTextTime != 0 && timeNanos - mLastTextTime < TEXT_INTERVAL_NANOS) {
+            return false;
+        }
+        double rate = getRate();
+        if (rate < 0) {
+            return false;
+        }
+        mLastTextTime = timeNanos;
+
+        out.clear();
+        if (bytes) {
+            int unit = 0;
+            while (rate >= 1024 && unit < BYTE_UNITS.length - 1) {
+                rate /= 1024;
+                unit++;
+            }
+            out.append(rate, 1).append(' ').append(BYTE_UNITS[unit]).append("/s");
+        } else {
+            out.append(rate, 1).append("/s");
+        }
+        if (rate > 0 && max > progress) {
+            long seconds = (long) Math.ceil((max - progress) / getRate());
+            out.append(" \u00b7 ");
+            if (seconds >= 3600) {
+                out.append(seconds / 3600).append(':');
+                out.appendPadded(seconds / 60 % 60, 2);
+            } else {
+                out.append(seconds / 60);
+            }
+            out.append(':').appendPadded(seconds % 60, 2);
+        }
+        return true;
+    }
+}
@@ -16,65 +16,215 @@
 
 package com.kaopiz.kprogresshud;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.drawable.AnimatedVectorDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
 import android.util.AttributeSet;
-import android.widget.ImageView;
+import android.view.View;
 
-class SpinView extends ImageView implements Indeterminate {
+/**
+ * The spinner of the SPIN_INDETERMINATE style, drawn at its exact size from shared Paints
+ * instead of scaling a bitmap. The geometry matches the former kprogresshud_spinner image.
+ * In render thread mode, on API 25 and later with hardware acceleration, the same spinner is
+ * an AnimatedVectorDrawable instead. Its rotation then runs on the RenderThread and keeps
+ * going while the main thread is blocked.
+ */
+class SpinView extends View implements Indeterminate, FrameClock.Callback, HudTheme.Themed {
+
+    // 12 spokes, it steps one spoke at a time, 12 steps per second
+    static final int SPOKE_COUNT = 12;
+    private static final float STEPS_PER_SECOND = 12;
+    private static final int DEFAULT_SIZE_DP = 40;
+
+    // Spoke geometry, relative to the view size
+    static final float SPOKE_INNER_RADIUS = 0.25f;
+    static final float SPOKE_OUTER_RADIUS = 0.5f;
+    static final float SPOKE_WIDTH = 0.0875f;
+
+    // One Paint per spoke, from the brightest to the most faded one
+    private Paint[] mSpokePaints;
+    private final RectF mSpokeBound = new RectF();
+    private float mSpokeCornerRadius;
+
+    private boolean mRenderThreadMode;
+    // Created the first time the render thread animation is used, then kept
+    private Drawable mAnimatedSpinner;
+    private boolean mAnimatedSpinnerRunning;
+    private int mSpinnerColor;
 
     private float mRotateDegrees;
-    private int mFrameTime;
-    private boolean mNeedToUpdateView;
-    private Runnable mUpdateViewRunnable;
+    private float mSpeed = 1;
+    private long mStartTimeNanos = -1;
+    private int mStartStep;
+    private int mStep;
 
     public SpinView(Context context) {
+        this(context, HudTheme.getDefault(context));
+    }
+
+    public SpinView(Context context, HudTheme theme) {
         super(context);
-        init();
+        setTheme(theme);
     }
 
     public SpinView(Context context, AttributeSet attrs) {
         super(context, attrs);
-        init();
+        setTheme(HudTheme.getDefault(context));
     }
 
-    private void init() {
-        setImageResource(R.drawable.kprogresshud_spinner);
-        mFrameTime = 1000 / 12;
-        mUpdateViewRunnable = new Runnable() {
-            @Override
-            public void run() {
-                mRotateDegrees += 30;
-                mRotateDegrees = mRotateDegrees < 360 ? mRotateDegrees : mRotateDegrees - 360;
-                invalidate();
-                if (mNeedToUpdateView) {
-                    postDelayed(this, mFrameTime);
-                }
-            }
-        };
+    @Override
+    public void setTheme(HudTheme theme) {
+        // Shared with every other view of the theme
+        mSpokePaints = theme.getPaints(getContext()).spinnerSpokes;
+        mSpinnerColor = theme.getProgressColor();
+        if (mAnimatedSpinner != null) {
+            tintAnimatedSpinner();
+        }
+        invalidate();
     }
 
     @Override
     public void setAnimationSpeed(float scale) {
-        mFrameTime = (int) (1000 / 12 / scale);
+        mSpeed = scale;
+        // Continue from the current spoke at the new speed
+        mStartStep = mStep;
+        mStartTimeNanos = -1;
+        updateAnimation();
+    }
+
+    /**
+     * Animate the rotation on the RenderThread when possible. The animated drawable runs at
+     * normal speed only, other speeds keep the frame clock animation.
+     */
+    public void setRenderThreadMode(boolean renderThreadMode) {
+        mRenderThreadMode = renderThreadMode;
+        updateAnimation();
+    }
+
+    private boolean canUseRenderThread() {
+        return mRenderThreadMode && mSpeed == 1
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N_MR1 && isHardwareAccelerated();
+    }
+
+    /**
+     * Run the animation that fits the current settings while attached, and only that one.
+     */
+    private void updateAnimation() {
+        FrameClock.getInstance().removeCallback(this);
+        stopAnimatedSpinner();
+        if (getWindowToken() == null) {
+            return;
+        }
+        if (canUseRenderThread()) {
+            startAnimatedSpinner();
+        } else {
+            mStartStep = mStep;
+            mStartTimeNanos = -1;
+            FrameClock.getInstance().addCallback(this);
+        }
+        invalidate();
+    }
+
+    @TargetApi(Build.VERSION_CODES.N_MR1)
+    private void startAnimatedSpinner() {
+        if (mAnimatedSpinner == null) {
+            mAnimatedSpinner = getContext().getDrawable(R.drawable.kprogresshud_spinner_animated);
+            mAnimatedSpinner.setCallback(this);
+            mAnimatedSpinner.setBounds(0, 0, getWidth(), getHeight());
+            tintAnimatedSpinner();
+        }
+        mAnimatedSpinnerRunning = true;
+        ((AnimatedVectorDrawable) mAnimatedSpinner).start();
+    }
+
+    @TargetApi(Build.VERSION_CODES.N_MR1)
+    private void stopAnimatedSpinner() {
+        if (mAnimatedSpinnerRunning) {
+            mAnimatedSpinnerRunning = false;
+            ((AnimatedVectorDrawable) mAnimatedSpinner).stop();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.N_MR1)
+    private void tintAnimatedSpinner() {
+        mAnimatedSpinner.setTint(mSpinnerColor);
+    }
+
+    @Override
+    protected boolean verifyDrawable(Drawable who) {
+        return who == mAnimatedSpinner || super.verifyDrawable(who);
+    }
+
+    @Override
+    public void onFrame(long frameTimeNanos) {
+        if (mStartTimeNanos < 0) {
+            mStartTimeNanos = frameTimeNanos;
+        }
+        double elapsedSeconds = (frameTimeNanos - mStartTimeNanos) / 1e9;
+        int step = (int) ((mStartStep + (long) (elapsedSeconds * STEPS_PER_SECOND * mSpeed)) % SPOKE_COUNT);
+        if (step != mStep) {
+            mStep = step;
+            mRotateDegrees = step * 360f / SPOKE_COUNT;
+            invalidate();
+        }
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int dimension = Helper.dpToPixel(DEFAULT_SIZE_DP, getContext());
+        setMeasuredDimension(resolveSize(dimension, widthMeasureSpec),
+                resolveSize(dimension, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        // The spoke pointing down, centered on the origin, the others are rotated copies
+        float size = Math.min(w, h);
+        float halfWidth = size * SPOKE_WIDTH / 2;
+        mSpokeBound.set(-halfWidth, size * SPOKE_INNER_RADIUS,
+                halfWidth, size * SPOKE_OUTER_RADIUS);
+        mSpokeCornerRadius = halfWidth;
+        if (mAnimatedSpinner != null) {
+            mAnimatedSpinner.setBounds(0, 0, w, h);
+        }
     }
 
     @Override
     protected void onDraw(Canvas canvas) {
-        canvas.rotate(mRotateDegrees, getWidth() / 2, getHeight() / 2);
-        super.onDraw(canvas);
+        if (mAnimatedSpinnerRunning) {
+            mAnimatedSpinner.draw(canvas);
+            return;
+        }
+        canvas.save();
+        canvas.translate(getWidth() / 2f, getHeight() / 2f);
+        canvas.rotate(mRotateDegrees);
+        // The brightest spoke leads, the others fade out behind it, counter clockwise
+        float stepDegrees = 360f / SPOKE_COUNT;
+        for (int i = 0; i < SPOKE_COUNT; i++) {
+            canvas.drawRoundRect(mSpokeBound, mSpokeCornerRadius, mSpokeCornerRadius,
+                    mSpokePaints[i]);
+            canvas.rotate(-stepDegrees);
+        }
+        canvas.restore();
     }
 
     @Override
     protected void onAttachedToWindow() {
         super.onAttachedToWindow();
-        mNeedToUpdateView = true;
-        post(mUpdateViewRunnable);
+        // Hardware acceleration is only known once attached
+        updateAnimation();
     }
 
     @Override
     protected void onDetachedFromWindow() {
-        mNeedToUpdateView = false;
+        FrameClock.getInstance().removeCallback(this);
+        stopAnimatedSpinner();
         super.onDetachedFromWindow();
     }
 }
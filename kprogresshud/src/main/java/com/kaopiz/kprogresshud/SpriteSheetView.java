@@ -0,0 +1,159 @@
+/*
+ *    Copyright 2015 Kaopiz Software Co., Ltd.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.kaopiz.kprogresshud;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.view.View;
+
+/**
+ * Indeterminate custom view playing a frame animation from a single sprite sheet: frames of the
+ * same size laid out in rows, left to right then top to bottom. Each frame is drawn straight
+ * from its area of the sheet, so an animation of any length costs one bitmap, and playing it
+ * allocates nothing. Driven by the {@link FrameClock} and honors
+ * {@link KProgressHUD#setAnimationSpeed(int)}.
+ * Pass it to {@link KProgressHUD#setCustomView(View)}.
+ */
+public class SpriteSheetView extends View implements Indeterminate, FrameClock.Callback {
+
+    private static final int DEFAULT_FRAME_DURATION_MS = 33;
+
+    private final Bitmap mSheet;
+    private final int mFrameCount;
+    private final int mColumns;
+    private final int mFrameWidth;
+    private final int mFrameHeight;
+    private final Rect mSourceRect = new Rect();
+    private final Rect mTargetRect = new Rect();
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private int mFrameDurationMs = DEFAULT_FRAME_DURATION_MS;
+    private float mSpeed = 1;
+    private long mStartTimeNanos = -1;
+    private int mStartFrame;
+    private int mFrame;
+
+    /**
+     * @param sheet Sprite sheet, drawn as is. It is not modified or recycled by the view.
+     * @param frameCount Number of frames, the last row may be incomplete
+     * @param columns Number of frames in a row
+     */
+    public SpriteSheetView(Context context, Bitmap sheet, int frameCount, int columns) {
+        super(context);
+        if (frameCount <= 0 || columns <= 0) {
+            throw new IllegalArgumentException("Frame count and columns must be positive!");
+        }
+        int rows = (frameCount + columns - 1) / columns;
+        mSheet = sheet;
+        mFrameCount = frameCount;
+        mColumns = columns;
+        mFrameWidth = sheet.getWidth() / columns;
+        mFrameHeight = sheet.getHeight() / rows;
+        updateSourceRect();
+    }
+
+    /**
+     * Play a sprite sheet resource, decoded once through {@link HudBitmapCache} at the size
+     * the frames are drawn at.
+     * @param resId Drawable resource of the sprite sheet
+     * @param frameCount Number of frames, the last row may be incomplete
+     * @param columns Number of frames in a row
+     * @param frameWidth Width to draw a frame at, in pixels
+     * @param frameHeight Height to draw a frame at, in pixels
+     */
+    public SpriteSheetView(Context context, int resId, int frameCount, int columns,
+                           int frameWidth, int frameHeight) {
+        this(context, HudBitmapCache.getInstance(context).getBitmap(context, resId,
+                frameWidth * columns, frameHeight * ((frameCount + columns - 1) / columns)),
+                frameCount, columns);
+    }
+
+    /**
+     * @param frameDurationMs Time each frame is shown at normal speed, default is 33 (30 fps)
+     */
+    public void setFrameDuration(int frameDurationMs) {
+        if (frameDurationMs > 0) {
+            mFrameDurationMs = frameDurationMs;
+            restartFromCurrentFrame();
+        }
+    }
+
+    @Override
+    public void setAnimationSpeed(float scale) {
+        mSpeed = scale;
+        restartFromCurrentFrame();
+    }
+
+    private void restartFromCurrentFrame() {
+        mStartFrame = mFrame;
+        mStartTimeNanos = -1;
+    }
+
+    @Override
+    public void onFrame(long frameTimeNanos) {
+        if (mStartTimeNanos < 0) {
+            mStartTimeNanos = frameTimeNanos;
+        }
+        double elapsedMs = (frameTimeNanos - mStartTimeNanos) / 1e6;
+        int frame = (int) ((mStartFrame + (long) (elapsedMs * mSpeed / mFrameDurationMs))
+                % mFrameCount);
+        if (frame != mFrame) {
+            mFrame = frame;
+            updateSourceRect();
+            invalidate();
+        }
+    }
+
+    private void updateSourceRect() {
+        int left = (mFrame % mColumns) * mFrameWidth;
+        int top = (mFrame / mColumns) * mFrameHeight;
+        mSourceRect.set(left, top, left + mFrameWidth, top + mFrameHeight);
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        setMeasuredDimension(resolveSize(mFrameWidth, widthMeasureSpec),
+                resolveSize(mFrameHeight, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        mTargetRect.set(0, 0, w, h);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        canvas.drawBitmap(mSheet, mSourceRect, mTargetRect, mPaint);
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        restartFromCurrentFrame();
+        FrameClock.getInstance().addCallback(this);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        FrameClock.getInstance().removeCallback(this);
+        super.onDetachedFromWindow();
+    }
+}
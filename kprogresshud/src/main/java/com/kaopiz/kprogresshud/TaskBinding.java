@@ -0,0 +1,185 @@
+/*
+ *    Copyright 2015 Kaopiz Software Co., Ltd.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.kaopiz.kprogresshud;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+/**
+ * Link between a HUD and the work it is shown for. The end of the work, whether completed,
+ * failed or cancelled, is delivered to the HUD as a frame action, in the same frame as any
+ * pending progress update.
+ */
+abstract class TaskBinding implements Runnable {
+
+    private final KProgressHUD mHud;
+    private final AtomicBoolean mDone = new AtomicBoolean();
+
+    TaskBinding(KProgressHUD hud) {
+        mHud = hud;
+    }
+
+    /**
+     * Start watching the work. Called on the main thread.
+     */
+    abstract void start();
+
+    /**
+     * Cancel the work, because the HUD was cancelled.
+     */
+    abstract void cancel();
+
+    /**
+     * Stop watching the work, which is replaced by other work. Called on the main thread.
+     */
+    void stop() {
+    }
+
+    /**
+     * Report the end of the work. Safe to call from any thread, more than once.
+     */
+    final void onDone() {
+        if (mDone.compareAndSet(false, true)) {
+            FrameClock.getInstance().postFrameAction(this);
+        }
+    }
+
+    @Override
+    public final void run() {
+        mHud.onBindingDone(this);
+    }
+
+    /**
+     * A plain Future has no completion callback, it is checked once per frame instead.
+     */
+    static class FutureBinding extends TaskBinding implements FrameClock.Callback {
+
+        private final Future<?> mFuture;
+
+        FutureBinding(KProgressHUD hud, Future<?> future) {
+            super(hud);
+            mFuture = future;
+        }
+
+        @Override
+        void start() {
+            FrameClock.getInstance().addCallback(this);
+        }
+
+        @Override
+        void cancel() {
+            stop();
+            mFuture.cancel(true);
+        }
+
+        @Override
+        void stop() {
+            FrameClock.getInstance().removeCallback(this);
+        }
+
+        @Override
+        public void onFrame(long frameTimeNanos) {
+            if (mFuture.isDone()) {
+                FrameClock.getInstance().removeCallback(this);
+                onDone();
+            }
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    static class CompletableFutureBinding extends TaskBinding
+            implements BiConsumer<Object, Throwable> {
+
+        private final CompletableFuture<?> mFuture;
+
+        CompletableFutureBinding(KProgressHUD hud, CompletableFuture<?> future) {
+            super(hud);
+            mFuture = future;
+        }
+
+        @Override
+        void start() {
+            mFuture.whenComplete(this);
+        }
+
+        @Override
+        void cancel() {
+            mFuture.cancel(true);
+        }
+
+        @Override
+        public void accept(Object result, Throwable error) {
+            onDone();
+        }
+    }
+
+    /**
+     * Work run on an Executor, through a FutureTask that reports its own end.
+     */
+    static class ExecutorBinding extends TaskBinding {
+
+        private final Executor mExecutor;
+        private final FutureTask<Void> mFutureTask;
+
+        ExecutorBinding(KProgressHUD hud, Executor executor, final KProgressHUD.ProgressTask task,
+                        final KProgressHUD.ProgressReporter reporter) {
+            super(hud);
+            mExecutor = executor;
+            mFutureTask = new FutureTask<Void>(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    task.run(reporter);
+                    return null;
+                }
+            }) {
+                @Override
+                protected void done() {
+                    onDone();
+                }
+            };
+        }
+
+        Future<Void> getFuture() {
+            return mFutureTask;
+        }
+
+        @Override
+        void start() {
+            try {
+                mExecutor.execute(mFutureTask);
+            } catch (RejectedExecutionException e) {
+                // The work will never run, end the binding so that the HUD is dismissed
+                mFutureTask.cancel(false);
+                throw e;
+            }
+        }
+
+        @Override
+        void cancel() {
+            mFutureTask.cancel(true);
+        }
+    }
+}
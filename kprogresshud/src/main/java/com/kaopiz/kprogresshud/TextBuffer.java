@@ -0,0 +1,179 @@
+/*
+ *    Copyright 2015 Kaopiz Software Co., Ltd.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.kaopiz.kprogresshud;
+
+/**
+ * Mutable, reusable text. Appending numbers does not allocate, so label text can be rebuilt
+ * on every update without producing garbage.
+ */
+final class TextBuffer implements CharSequence {
+
+    private char[] mChars;
+    private int mLength;
+
+    public TextBuffer() {
+        this(32);
+    }
+
+    public TextBuffer(int capacity) {
+        mChars = new char[capacity];
+    }
+
+    /**
+     * @return The backing array, valid from 0 to {@link #length()}
+     */
+    public char[] getChars() {
+        return mChars;
+    }
+
+    public TextBuffer clear() {
+        mLength = 0;
+        return this;
+    }
+
+    public TextBuffer set(CharSequence text) {
+        if (text == this) {
+            return this;
+        }
+        mLength = 0;
+        return append(text);
+    }
+
+    public TextBuffer append(char c) {
+        ensureCapacity(mLength + 1);
+        mChars[mLength++] = c;
+        return this;
+    }
+
+    public TextBuffer append(CharSequence text) {
+        int length = text.length();
+        ensureCapacity(mLength + length);
+        for (int i = 0; i < length; i++) {
+            mChars[mLength++] = text.charAt(i);
+        }
+        return this;
+    }
+
+    public TextBuffer append(char[] text, int start, int length) {
+        ensureCapacity(mLength + length);
+        System.arraycopy(text, start, mChars, mLength, length);
+        mLength += length;
+        return this;
+    }
+
+    public TextBuffer append(long value) {
+        if (value < 0) {
+            append('-');
+            if (value == Long.MIN_VALUE) {
+                return append("9223372036854775808");
+            }
+            value = -value;
+        }
+        int start = mLength;
+        do {
+            append((char) ('0' + value % 10));
+            value /= 10;
+        } while (value != 0);
+        // Digits were written from the lowest one
+        for (int i = start, j = mLength - 1; i < j; i++, j--) {
+            char c = mChars[i];
+            mChars[i] = mChars[j];
+            mChars[j] = c;
+        }
+        return this;
+    }
+
+    /**
+     * Append a number with a fixed count of decimals, rounded half up.
+     */
+    public TextBuffer append(double value, int decimals) {
+        long factor = 1;
+        for (int i = 0; i < decimals; i++) {
+            factor *= 10;
+        }
+        long scaled = Math.round(Math.abs(value) * factor);
+        if (value < 0 && scaled != 0) {
+            append('-');
+        }
+        append(scaled / factor);
+        if (decimals > 0) {
+            append('.');
+            long fraction = scaled % factor;
+            for (long digit = factor / 10; digit > 0; digit /= 10) {
+                append((char) ('0' + fraction / digit % 10));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Append a number left padded with zeros to the given count of digits.
+     */
+    public TextBuffer appendPadded(long value, int digits) {
+        long limit = 10;
+        for (int i = 1; i < digits; i++) {
+            if (value < limit) {
+                append('0');
+            }
+            limit *= 10;
+        }
+        return append(value);
+    }
+
+    public boolean contentEquals(CharSequence text) {
+        if (text == null || text.length() != mLength) {
+            return false;
+        }
+        for (int i = 0; i < mLength; i++) {
+            if (mChars[i] != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > mChars.length) {
+            char[] chars = new char[Math.max(capacity, mChars.length * 2)];
+            System.arraycopy(mChars, 0, chars, 0, mLength);
+            mChars = chars;
+        }
+    }
+
+    @Override
+    public int length() {
+        return mLength;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= mLength) {
+            throw new IndexOutOfBoundsException();
+        }
+        return mChars[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new String(mChars, start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(mChars, 0, mLength);
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ *    Copyright 2015 Kaopiz Software Co., Ltd.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.kaopiz.kprogresshud;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class HudTimersTest {
+
+    /**
+     * Virtual clock, pending actions run when time is advanced past them.
+     */
+    private static class FakeScheduler implements HudScheduler {
+
+        private final ArrayList<Runnable> mActions = new ArrayList<>();
+        private final ArrayList<Long> mTimes = new ArrayList<>();
+        private long mNow = 1000;
+
+        @Override
+        public long now() {
+            return mNow;
+        }
+
+        @Override
+        public void schedule(Runnable action, long delayMs) {
+            cancel(action);
+            mActions.add(action);
+            mTimes.add(mNow + delayMs);
+        }
+
+        @Override
+        public void cancel(Runnable action) {
+            int index = mActions.indexOf(action);
+            if (index >= 0) {
+                mActions.remove(index);
+                mTimes.remove(index);
+            }
+        }
+
+        int pendingCount() {
+            return mActions.size();
+        }
+
+        void advance(long ms) {
+            long end = mNow + ms;
+            while (true) {
+                int next = -1;
+                for (int i = 0; i < mTimes.size(); i++) {
+                    if (mTimes.get(i) <= end && (next < 0 || mTimes.get(i) < mTimes.get(next))) {
+                        next = i;
+                    }
+                }
+                if (next < 0) {
+                    break;
+                }
+                mNow = mTimes.remove(next);
+                mActions.remove(next).run();
+            }
+            mNow = end;
+        }
+    }
+
+    private static class FakeTarget implements HudTimers.Target {
+
+        boolean showing;
+        boolean canPresent = true;
+        int showCount;
+        int presentCount;
+        int removeCount;
+        int dismissCount;
+
+        @Override
+        public boolean isShowing() {
+            return showing;
+        }
+
+        @Override
+        public void onShowStarted() {
+            showCount++;
+        }
+
+        @Override
+        public void onGraceTimeElapsed() {
+        }
+
+        @Override
+        public void onDismissStarted() {
+            dismissCount++;
+        }
+
+        @Override
+        public boolean present() {
+            presentCount++;
+            showing = canPresent;
+            return canPresent;
+        }
+
+        @Override
+        public void remove() {
+            if (showing) {
+                removeCount++;
+            }
+            showing = false;
+        }
+    }
+
+    private FakeScheduler mScheduler;
+    private FakeTarget mTarget;
+    private HudTimers mTimers;
+
+    @Before
+    public void setUp() {
+        mScheduler = new FakeScheduler();
+        mTarget = new FakeTarget();
+        mTimers = new HudTimers(mTarget, mScheduler);
+    }
+
+    @Test
+    public void showsRightAwayWithoutGraceTime() {
+        mTimers.show();
+        assertTrue(mTarget.showing);
+        assertEquals(0, mScheduler.pendingCount());
+        mTimers.dismiss();
+        assertFalse(mTarget.showing);
+        assertTrue(mTimers.isFinished());
+    }
+
+    @Test
+    public void showsOnceGraceTimeRunsOut() {
+        mTimers.setGraceTime(500);
+        mTimers.show();
+        assertFalse(mTarget.showing);
+        assertTrue(mTimers.isShowRequested());
+        mScheduler.advance(499);
+        assertFalse(mTarget.showing);
+        mScheduler.advance(1);
+        assertTrue(mTarget.showing);
+    }
+
+    @Test
+    public void dismissDuringGraceTimeNeverShows() {
+        mTimers.setGraceTime(500);
+        mTimers.show();
+        mScheduler.advance(200);
+        mTimers.dismiss();
+        assertFalse(mTimers.isShowRequested());
+        mScheduler.advance(1000);
+        assertEquals(0, mTarget.presentCount);
+        assertEquals(0, mScheduler.pendingCount());
+    }
+
+    @Test
+    public void repeatedShowStartsOnce() {
+        mTimers.setGraceTime(500);
+        mTimers.show();
+        mTimers.show();
+        mScheduler.advance(500);
+        mTimers.show();
+        assertEquals(1, mTarget.showCount);
+        assertEquals(1, mTarget.presentCount);
+    }
+
+    @Test
+    public void dismissWaitsForMinShowTime() {
+        mTimers.setMinShowTime(1000);
+        mTimers.show();
+        mScheduler.advance(300);
+        mTimers.dismiss();
+        assertTrue(mTarget.showing);
+        assertTrue(mTimers.isFinished());
+        assertFalse(mTimers.isShowRequested());
+        mScheduler.advance(699);
+        assertTrue(mTarget.showing);
+        mScheduler.advance(1);
+        assertFalse(mTarget.showing);
+        assertEquals(1, mTarget.removeCount);
+    }
+
+    @Test
+    public void dismissAfterMinShowTimeIsImmediate() {
+        mTimers.setMinShowTime(1000);
+        mTimers.show();
+        mScheduler.advance(1500);
+        mTimers.dismiss();
+        assertFalse(mTarget.showing);
+    }
+
+    @Test
+    public void showDuringMinShowTimeKeepsTheHud() {
+        mTimers.setMinShowTime(1000);
+        mTimers.show();
+        mTimers.dismiss();
+        mScheduler.advance(500);
+        mTimers.show();
+        assertFalse(mTimers.isFinished());
+        mScheduler.advance(5000);
+        assertTrue(mTarget.showing);
+        assertEquals(1, mTarget.presentCount);
+        assertEquals(1, mTarget.showCount);
+    }
+
+    @Test
+    public void delayedDismiss() {
+        mTimers.show();
+        mTimers.dismiss(800);
+        assertTrue(mTarget.showing);
+        assertFalse(mTimers.isShowRequested());
+        mScheduler.advance(799);
+        assertTrue(mTarget.showing);
+        mScheduler.advance(1);
+        assertFalse(mTarget.showing);
+    }
+
+    @Test
+    public void delayedDismissThenMinShowTime() {
+        mTimers.setMinShowTime(1000);
+        mTimers.show();
+        mTimers.dismiss(300);
+        mScheduler.advance(300);
+        assertTrue(mTarget.showing);
+        mScheduler.advance(699);
+        assertTrue(mTarget.showing);
+        mScheduler.advance(1);
+        assertFalse(mTarget.showing);
+    }
+
+    @Test
+    public void showCancelsDelayedDismiss() {
+        mTimers.show();
+        mTimers.dismiss(800);
+        mScheduler.advance(400);
+        mTimers.show();
+        mScheduler.advance(1000);
+        assertTrue(mTarget.showing);
+        assertEquals(0, mScheduler.pendingCount());
+    }
+
+    @Test
+    public void dismissNowIgnoresMinShowTime() {
+        mTimers.setMinShowTime(1000);
+        mTimers.show();
+        mTimers.dismiss();
+        mTimers.dismissNow();
+        assertFalse(mTarget.showing);
+        assertEquals(0, mScheduler.pendingCount());
+    }
+
+    @Test
+    public void failedPresentLeavesNothingPending() {
+        mTarget.canPresent = false;
+        mTimers.show();
+        assertTrue(mTimers.isFinished());
+        assertFalse(mTimers.isShowRequested());
+        // A later show tries again
+        mTarget.canPresent = true;
+        mTimers.show();
+        assertTrue(mTarget.showing);
+        assertFalse(mTimers.isFinished());
+    }
+
+    @Test
+    public void reportsDismissOncePerShow() {
+        mTimers.setMinShowTime(1000);
+        mTimers.show();
+        mTimers.dismiss(200);
+        mTimers.dismiss();
+        mTimers.dismiss();
+        assertEquals(1, mTarget.dismissCount);
+        mScheduler.advance(1000);
+        mTimers.dismissNow();
+        assertFalse(mTarget.showing);
+        assertEquals(1, mTarget.dismissCount);
+        // A new show reports its own dismiss
+        mTimers.show();
+        mTimers.dismiss();
+        assertEquals(2, mTarget.dismissCount);
+    }
+
+    @Test
+    public void doesNotReportDismissWhenNothingShows() {
+        mTimers.dismiss();
+        mTimers.dismiss(200);
+        mTimers.dismissNow();
+        assertEquals(0, mTarget.dismissCount);
+        // Cancelled during grace time still counts, the show was requested
+        mTimers.setGraceTime(500);
+        mTimers.show();
+        mTimers.dismiss();
+        mTimers.dismiss();
+        assertEquals(1, mTarget.dismissCount);
+    }
+}
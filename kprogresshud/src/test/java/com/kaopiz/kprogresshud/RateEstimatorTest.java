@@ -0,0 +1,103 @@
+/*
+ *    Copyright 2015 Kaopiz Software Co., Ltd.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.kaopiz.kprogresshud;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RateEstimatorTest {
+
+    private static final long SECOND = 1000000000L;
+
+    private final RateEstimator mEstimator = new RateEstimator();
+    private final TextBuffer mText = new TextBuffer();
+
+    private String format(long timeNanos, long progress, long max, boolean bytes) {
+        assertTrue(mEstimator.formatIfDue(timeNanos, progress, max, bytes, mText));
+        return mText.toString();
+    }
+
+    @Test
+    public void unknownRateWithOneSample() {
+        mEstimator.addSample(SECOND, 100);
+        assertFalse(mEstimator.formatIfDue(SECOND, 100, 0, false, mText));
+        assertEquals(0, mText.length());
+    }
+
+    @Test
+    public void scalesByteUnits() {
+        mEstimator.addSample(SECOND, 0);
+        mEstimator.addSample(2 * SECOND, 512);
+        assertEquals("512.0 B/s", format(2 * SECOND, 512, 0, true));
+
+        mEstimator.reset();
+        mEstimator.addSample(SECOND, 0);
+        mEstimator.addSample(2 * SECOND, 1536 * 1024);
+        assertEquals("1.5 MB/s", format(2 * SECOND, 1536 * 1024, 0, true));
+    }
+
+    @Test
+    public void plainUnits() {
+        mEstimator.addSample(SECOND, 0);
+        mEstimator.addSample(3 * SECOND, 5);
+        assertEquals("2.5/s", format(3 * SECOND, 5, 0, false));
+    }
+
+    @Test
+    public void timeLeftInMinutes() {
+        mEstimator.addSample(SECOND, 0);
+        mEstimator.addSample(2 * SECOND, 10);
+        assertEquals("10.0/s \u00b7 0:09", format(2 * SECOND, 10, 100, false));
+    }
+
+    @Test
+    public void timeLeftSwitchesToHours() {
+        mEstimator.addSample(SECOND, 0);
+        mEstimator.addSample(2 * SECOND, 1);
+        assertEquals("1.0/s \u00b7 59:59", format(2 * SECOND, 1, 1 + 3599, false));
+
+        mEstimator.reset();
+        mEstimator.addSample(SECOND, 0);
+        mEstimator.addSample(2 * SECOND, 1);
+        assertEquals("1.0/s \u00b7 1:01:01", format(2 * SECOND, 1, 1 + 3661, false));
+    }
+
+    @Test
+    public void refreshesTextAtMostTwiceASecond() {
+        mEstimator.addSample(SECOND, 0);
+        mEstimator.addSample(2 * SECOND, 10);
+        format(2 * SECOND, 10, 0, false);
+        mEstimator.addSample(2 * SECOND + SECOND / 4, 20);
+        assertFalse(mEstimator.formatIfDue(2 * SECOND + SECOND / 4, 20, 0, false, mText));
+        mEstimator.addSample(2 * SECOND + SECOND / 2, 30);
+        assertTrue(mEstimator.formatIfDue(2 * SECOND + SECOND / 2, 30, 0, false, mText));
+    }
+
+    @Test
+    public void resetsWhenProgressGoesBack() {
+        mEstimator.addSample(SECOND, 0);
+        mEstimator.addSample(2 * SECOND, 1000);
+        assertEquals("1000.0/s", format(2 * SECOND, 1000, 0, false));
+
+        // A new task starts from 5, the old samples must not count
+        mEstimator.addSample(3 * SECOND, 5);
+        assertTrue(mEstimator.getRate() < 0);
+        assertFalse(mEstimator.formatIfDue(3 * SECOND, 5, 0, false, mText));
+        mEstimator.addSample(4 * SECOND, 15);
+        assertEquals("10.0/s", format(4 * SECOND, 15, 0, false));
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ *    Copyright 2015 Kaopiz Software Co., Ltd.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.kaopiz.kprogresshud;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TextBufferTest {
+
+    private static String format(long value) {
+        return new TextBuffer().append(value).toString();
+    }
+
+    private static String format(double value, int decimals) {
+        return new TextBuffer().append(value, decimals).toString();
+    }
+
+    private static String formatPadded(long value, int digits) {
+        return new TextBuffer().appendPadded(value, digits).toString();
+    }
+
+    @Test
+    public void appendLong() {
+        assertEquals("0", format(0));
+        assertEquals("7", format(7));
+        assertEquals("1234567890", format(1234567890L));
+        assertEquals("-42", format(-42));
+        assertEquals(Long.toString(Long.MAX_VALUE), format(Long.MAX_VALUE));
+        assertEquals(Long.toString(Long.MIN_VALUE), format(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void appendDouble() {
+        assertEquals("1.5", format(1.5, 1));
+        assertEquals("2.00", format(1.995, 2));
+        assertEquals("0.1", format(0.05, 1));
+        assertEquals("3", format(2.5, 0));
+        assertEquals("10.0", format(9.96, 1));
+        assertEquals("0.05", format(0.05, 2));
+    }
+
+    @Test
+    public void appendNegativeDouble() {
+        assertEquals("-1.5", format(-1.5, 1));
+        assertEquals("-0.3", format(-0.25, 1));
+        // Rounds to zero, no sign
+        assertEquals("0.0", format(-0.04, 1));
+    }
+
+    @Test
+    public void appendPadded() {
+        assertEquals("05", formatPadded(5, 2));
+        assertEquals("00", formatPadded(0, 2));
+        assertEquals("42", formatPadded(42, 2));
+        assertEquals("123", formatPadded(123, 2));
+        assertEquals("007", formatPadded(7, 3));
+        assertEquals("9", formatPadded(9, 1));
+    }
+
+    @Test
+    public void appendChains() {
+        TextBuffer buffer = new TextBuffer(2);
+        buffer.append("ETA ").append(1).append(':').appendPadded(5, 2);
+        assertEquals("ETA 1:05", buffer.toString());
+        assertTrue(buffer.contentEquals("ETA 1:05"));
+        buffer.set("x");
+        assertEquals("x", buffer.toString());
+    }
+}